@@ -0,0 +1,9 @@
+echo "Running the benchmarks of commit $(git rev-parse --short HEAD)"
+echo
+echo
+gradle jmh $@
+echo
+echo
+echo "Results are in results/$(git rev-parse --short HEAD).json"
+echo "Compare them to an earlier commit with:"
+echo "gradle jmhCompare -Pbaseline=results/<commit>.json"
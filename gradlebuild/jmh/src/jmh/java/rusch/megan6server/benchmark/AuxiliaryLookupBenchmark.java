@@ -0,0 +1,103 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import rusch.megan6server.RMAFileHandler;
+import rusch.megan6server.cache.AuxiliaryCache;
+import rusch.megan6server.cache.FileVersion;
+import rusch.megan6server.cache.MetadataIndex;
+
+
+/**Lookup of auxiliary blocks with {@link AuxiliaryCache}.
+ *
+ * cached finds the block in memory. fromIndex drops the block of the file first, so it is loaded from the {@link MetadataIndex}
+ * as after a restart. The index is filled for every file beforehand, so neither benchmark opens an RMA6 file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class AuxiliaryLookupBenchmark {
+	public static final int FILES = 10000;
+
+	private RMAFileHandler fileHandler;
+	private MetadataIndex metadataIndex;
+	private AuxiliaryCache auxiliaryCache;
+	private String[] ids;
+
+	@Setup(Level.Trial)
+	public void createCatalog() throws IOException{
+		String[] paths = Fixtures.createCatalog(Fixtures.getCatalogRoot(), FILES);
+		fileHandler = new RMAFileHandler();
+		File indexFile = MetadataIndex.getIndexFile(Fixtures.getCatalogRoot());
+		indexFile.delete();
+		metadataIndex = new MetadataIndex(indexFile);
+		auxiliaryCache = new AuxiliaryCache(metadataIndex);
+		ids = new String[paths.length];
+		for(int i = 0; i < paths.length; i++){
+			ids[i] = String.valueOf(fileHandler.resolveFileIdentifierToId(paths[i]));
+			metadataIndex.putAuxiliary(FileVersion.of(fileHandler, ids[i]), Fixtures.createAuxiliary(i));
+			auxiliaryCache.getAuxBlock(fileHandler, ids[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void close(){
+		metadataIndex.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Position {
+		private int position = 0;
+
+		private int next(int length){
+			position = position + 7919 < length ? position + 7919 : (position + 7919) % length;
+			return position;
+		}
+	}
+
+	@Benchmark
+	public Map<String, String> cached(Position position) throws IOException{
+		return auxiliaryCache.getAuxBlock(fileHandler, ids[position.next(ids.length)]);
+	}
+
+	@Benchmark
+	public Map<String, String> fromIndex(Position position) throws IOException{
+		String id = ids[position.next(ids.length)];
+		auxiliaryCache.invalidate(Integer.parseInt(id));
+		return auxiliaryCache.getAuxBlock(fileHandler, id);
+	}
+
+}
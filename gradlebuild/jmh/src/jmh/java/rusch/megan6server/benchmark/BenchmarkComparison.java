@@ -0,0 +1,97 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**Compares two JMH result files in JSON, typically of two commits, and prints the change of every benchmark.
+ *
+ * For throughput a higher score is better, for the time modes a lower one. The change is printed so that a positive value is always an improvement.
+ * Changes within the error of both runs are marked with ~.
+ */
+public class BenchmarkComparison {
+
+	public static void main(String[] args) throws IOException{
+		if(args.length != 2 || args[0].length() == 0){
+			System.err.println("Usage: BenchmarkComparison <baseline.json> <current.json>");
+			System.exit(1);
+		}
+		Map<String, JsonNode> baseline = load(new File(args[0]));
+		Map<String, JsonNode> current = load(new File(args[1]));
+		System.out.println(String.format("%-90s %14s %14s %10s", "Benchmark", "Baseline", "Current", "Change"));
+		for(Entry<String, JsonNode> entry : current.entrySet()){
+			JsonNode now = entry.getValue().get("primaryMetric");
+			JsonNode before = baseline.containsKey(entry.getKey()) ? baseline.get(entry.getKey()).get("primaryMetric") : null;
+			String unit = now.get("scoreUnit").asText();
+			if(before == null){
+				System.out.println(String.format("%-90s %14s %14.3f %10s", entry.getKey(), "-", now.get("score").asDouble(), "new"));
+				continue;
+			}
+			double scoreBefore = before.get("score").asDouble();
+			double scoreNow = now.get("score").asDouble();
+			boolean higherIsBetter = unit.startsWith("ops/");
+			double change = scoreBefore == 0 ? 0 : (higherIsBetter ? scoreNow / scoreBefore - 1 : scoreBefore / scoreNow - 1);
+			boolean withinError = Math.abs(scoreNow - scoreBefore) <= error(before) + error(now);
+			System.out.println(String.format("%-90s %14.3f %14.3f %+9.1f%%%s %s", entry.getKey(), scoreBefore, scoreNow, 100 * change, withinError ? "~" : " ", unit));
+		}
+		for(String benchmark : baseline.keySet()){
+			if(!current.containsKey(benchmark)){
+				System.out.println(String.format("%-90s %14.3f %14s %10s", benchmark, baseline.get(benchmark).get("primaryMetric").get("score").asDouble(), "-", "removed"));
+			}
+		}
+	}
+
+	/**The results by benchmark name and parameters
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static Map<String, JsonNode> load(File file) throws IOException{
+		Map<String, JsonNode> results = new LinkedHashMap<String, JsonNode>();
+		for(JsonNode result : new ObjectMapper().readTree(file)){
+			StringBuilder name = new StringBuilder(result.get("benchmark").asText().replace("rusch.megan6server.benchmark.", ""));
+			JsonNode params = result.get("params");
+			if(params != null){
+				Iterator<Entry<String, JsonNode>> it = params.fields();
+				while(it.hasNext()){
+					Entry<String, JsonNode> param = it.next();
+					name.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+				}
+			}
+			results.put(name.toString(), result);
+		}
+		return results;
+	}
+
+	private static double error(JsonNode metric){
+		JsonNode error = metric.get("scoreError");
+		return error == null || !error.isNumber() ? 0 : error.asDouble();
+	}
+
+}
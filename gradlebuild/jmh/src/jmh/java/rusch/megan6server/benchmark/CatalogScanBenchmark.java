@@ -0,0 +1,79 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import rusch.megan6server.ServerProperties;
+import rusch.megan6server.filesystem.DatasetCatalog;
+import rusch.megan6server.filesystem.FileSystemScanner;
+import rusch.megan6server.filesystem.ScanManifest;
+
+
+/**Scanning a catalog of RMA6 files.
+ *
+ * rescan is the periodic scan of an unchanged root directory, every file is checked against the manifest of the last scan.
+ * coldScan is the first scan after a start without manifest. Both include building the {@link DatasetCatalog} from the manifest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CatalogScanBenchmark {
+	@Param({"1000", "10000"})
+	public int files;
+
+	private File root;
+	private File manifestFile;
+	private FileSystemScanner scanner;
+
+	@Setup(Level.Trial)
+	public void createCatalog() throws IOException{
+		root = Fixtures.getFixtureFolder("scan-" + files);
+		Fixtures.createCatalog(root, files);
+		manifestFile = new File(ServerProperties.getString("rma.manifestFile", "build/fixtures/catalog.manifest")).getAbsoluteFile();
+		scanner = new FileSystemScanner();
+		scanner.scan(root);
+	}
+
+	@Benchmark
+	public DatasetCatalog rescan() throws IOException{
+		ScanManifest manifest = scanner.scan(root);
+		return DatasetCatalog.build(root, manifest, 0);
+	}
+
+	@Benchmark
+	public DatasetCatalog coldScan() throws IOException{
+		manifestFile.delete();
+		ScanManifest manifest = new FileSystemScanner().scan(root);
+		return DatasetCatalog.build(root, manifest, 0);
+	}
+
+}
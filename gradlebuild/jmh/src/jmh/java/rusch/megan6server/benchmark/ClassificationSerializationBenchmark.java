@@ -0,0 +1,86 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import megan.data.IClassificationBlock;
+import rusch.megan5client.ClassificationBlockServer;
+import rusch.megan6server.serialization.BinaryJsonWriter;
+import rusch.megan6server.serialization.Compression;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**Serialization of classification blocks as done by getClassificationBlock: conversion into a {@link ClassificationBlockServer},
+ * JSON, JSON with gzip and the binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClassificationSerializationBenchmark {
+	@Param({"1000", "50000"})
+	public int classes;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final BinaryJsonWriter binaryWriter = new BinaryJsonWriter(mapper);
+	private IClassificationBlock block;
+	private ClassificationBlockServer server;
+
+	@Setup(Level.Trial)
+	public void createBlock(){
+		block = Fixtures.createClassificationBlock("Taxonomy", classes);
+		server = new ClassificationBlockServer(block);
+	}
+
+	@Benchmark
+	public ClassificationBlockServer convert(){
+		return new ClassificationBlockServer(block);
+	}
+
+	@Benchmark
+	public byte[] json() throws IOException{
+		return mapper.writeValueAsBytes(server);
+	}
+
+	@Benchmark
+	public byte[] jsonGzip() throws IOException{
+		return Compression.gzip(mapper.writeValueAsBytes(server));
+	}
+
+	@Benchmark
+	public byte[] binary() throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		binaryWriter.write(server, out);
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,276 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import jloda.util.ListOfLongs;
+import megan.data.IClassificationBlock;
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
+import megan.data.IReadBlockIterator;
+import megan.parsers.blast.BlastMode;
+import megan.rma6.RMA6FileCreator;
+import rusch.megan6server.ServerProperties;
+import rusch.megan6server.fixtures.SyntheticClassificationBlock;
+import rusch.megan6server.fixtures.SyntheticMatchBlock;
+import rusch.megan6server.fixtures.SyntheticReadBlock;
+import rusch.megan6server.fixtures.SyntheticReadBlockIterator;
+
+
+/**Synthetic data for the benchmarks. Everything is generated from a fixed seed so that all runs see the same data.
+ *
+ * The catalog consists of small RMA6 files in nested folders. A few of them are written with the MEGAN RMA6 writer,
+ * the others are copies, so every file of the catalog can be opened by the RMA6 connector.
+ * Meganized DAA files cannot be written without running DIAMOND, so there are none.
+ * Reads, matches and classification blocks are the plain classes of rusch.megan6server.fixtures.
+ */
+public class Fixtures {
+	public static final String[] CLASSIFICATIONS = {"Taxonomy", "SEED", "KEGG", "EGGNOG"};
+	private static final long SEED = 42;
+	private static final int FILES_PER_FOLDER = 100;
+	private static final int TEMPLATES = 8;
+
+	/**The root folder of the catalog from rma.rootFolder, resolved like RMAFileHandler does
+	 *
+	 * @return
+	 */
+	public static File getCatalogRoot(){
+		return new File(ServerProperties.getString("rma.rootFolder", "build/fixtures/catalog")).getAbsoluteFile();
+	}
+
+	/**A folder next to the catalog root
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static File getFixtureFolder(String name){
+		return new File(getCatalogRoot().getParentFile(), name);
+	}
+
+	/**Create numberOfFiles .rma6 files below root, FILES_PER_FOLDER per folder. Existing files are kept, so repeated runs do not write again.
+	 * The files are copies of TEMPLATES RMA6 files with 20 to 200 reads each, a few KB per file.
+	 *
+	 * @param root
+	 * @param numberOfFiles
+	 * @return the absolute paths of the files
+	 * @throws IOException
+	 */
+	public static String[] createCatalog(File root, int numberOfFiles) throws IOException{
+		File[] templates = createTemplates();
+		String[] paths = new String[numberOfFiles];
+		for(int i = 0; i < numberOfFiles; i++){
+			File folder = new File(root, String.format("project%03d/sample%03d", i / (FILES_PER_FOLDER * 10), (i / FILES_PER_FOLDER) % 10));
+			if(!folder.isDirectory() && !folder.mkdirs()){
+				throw new IOException("Could not create " + folder);
+			}
+			File file = new File(folder, String.format("run%06d.rma6", i));
+			if(!file.exists()){
+				Files.copy(templates[i % templates.length].toPath(), file.toPath());
+			}
+			paths[i] = file.getAbsolutePath();
+		}
+		return paths;
+	}
+
+	/**Write the RMA6 files the catalog is copied from, unless they exist
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private static File[] createTemplates() throws IOException{
+		File folder = getFixtureFolder("templates");
+		if(!folder.isDirectory() && !folder.mkdirs()){
+			throw new IOException("Could not create " + folder);
+		}
+		File[] templates = new File[TEMPLATES];
+		for(int i = 0; i < TEMPLATES; i++){
+			templates[i] = new File(folder, String.format("template%d.rma6", i));
+			if(!templates[i].exists()){
+				File file = new File(folder, templates[i].getName() + ".tmp");
+				writeRMA6(file, createReads(20 + i * 25, 1 + i % 4), createAuxiliary(i));
+				Files.move(file.toPath(), templates[i].toPath());
+			}
+		}
+		return templates;
+	}
+
+	/**Write the reads as an RMA6 file with the MEGAN writer, the way MEGAN writes the result of a BLASTX comparison.
+	 * The matches are written as SAM lines. Every read is counted for the class of its first match in each classification.
+	 *
+	 * @param file
+	 * @param reads
+	 * @param auxiliary
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public static void writeRMA6(File file, IReadBlock[] reads, Map<String, String> auxiliary) throws IOException{
+		Map<Integer, ListOfLongs>[] classId2Locations = new Map[CLASSIFICATIONS.length];
+		Map<Integer, Float>[] classId2Weight = new Map[CLASSIFICATIONS.length];
+		for(int c = 0; c < CLASSIFICATIONS.length; c++){
+			classId2Locations[c] = new HashMap<Integer, ListOfLongs>();
+			classId2Weight[c] = new HashMap<Integer, Float>();
+		}
+		RMA6FileCreator creator = new RMA6FileCreator(file.getPath(), true);
+		try{
+			creator.writeHeader("megan6server benchmarks", BlastMode.BlastX, CLASSIFICATIONS, false);
+			creator.startAddingQueries();
+			for(IReadBlock read : reads){
+				byte[] queryText = (read.getReadHeader() + "\n" + read.getReadSequence() + "\n").getBytes(StandardCharsets.US_ASCII);
+				StringBuilder matchesText = new StringBuilder();
+				int[][] match2Classification2Id = new int[read.getNumberOfAvailableMatches()][CLASSIFICATIONS.length];
+				for(int m = 0; m < read.getNumberOfAvailableMatches(); m++){
+					IMatchBlock match = read.getMatchBlock(m);
+					matchesText.append(read.getReadName()).append("\t0\t").append(match.getRefSeqId()).append("\t1\t255\t").append(match.getLength()).append("M\t*\t0\t0\t*\t*")
+					.append("\tAS:i:").append((int) match.getBitScore()).append("\tZE:f:").append(match.getExpected()).append("\tZI:i:").append((int) match.getPercentIdentity()).append('\n');
+					for(int c = 0; c < CLASSIFICATIONS.length; c++){
+						match2Classification2Id[m][c] = match.getId(CLASSIFICATIONS[c]);
+					}
+				}
+				long location = creator.getPosition();
+				byte[] matchesBytes = matchesText.toString().getBytes(StandardCharsets.US_ASCII);
+				creator.addQuery(queryText, queryText.length, match2Classification2Id.length, matchesBytes, matchesBytes.length, match2Classification2Id, 0);
+				if(match2Classification2Id.length > 0){
+					for(int c = 0; c < CLASSIFICATIONS.length; c++){
+						int classId = match2Classification2Id[0][c];
+						ListOfLongs locations = classId2Locations[c].get(classId);
+						if(locations == null){
+							locations = new ListOfLongs();
+							classId2Locations[c].put(classId, locations);
+						}
+						locations.add(location);
+						Float weight = classId2Weight[c].get(classId);
+						classId2Weight[c].put(classId, (weight == null ? 0 : weight) + read.getReadWeight());
+					}
+				}
+			}
+			creator.endAddingQueries();
+			creator.writeClassifications(CLASSIFICATIONS, classId2Locations, classId2Weight);
+			Map<String, byte[]> label2Data = new HashMap<String, byte[]>();
+			for(Map.Entry<String, String> entry : auxiliary.entrySet()){
+				label2Data.put(entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+			}
+			creator.writeAuxBlocks(label2Data);
+		}finally{
+			creator.close();
+		}
+	}
+
+	/**Auxiliary block like the one MEGAN writes: a few entries with sample attributes and a larger one with the settings.
+	 *
+	 * @param fileId
+	 * @return
+	 */
+	public static Map<String, String> createAuxiliary(int fileId){
+		Random random = new Random(SEED + fileId);
+		Map<String, String> aux = new HashMap<String, String>();
+		aux.put("SAMPLE_ATTRIBUTES", "#SampleID\tDepth\tTemperature\nrun" + fileId + "\t" + random.nextInt(5000) + "\t" + random.nextInt(30));
+		StringBuilder parameters = new StringBuilder();
+		for(int i = 0; i < 40; i++){
+			parameters.append("parameter").append(i).append('=').append(random.nextInt()).append(';');
+		}
+		aux.put("PARAMETERS", parameters.toString());
+		aux.put("USER_STATE", "@Creator\tMEGAN\n@CreationDate\t" + (1400000000000L + random.nextInt(Integer.MAX_VALUE)));
+		return aux;
+	}
+
+	/**Reads with a header, a sequence and matches that are assigned to a class in every classification
+	 *
+	 * @param numberOfReads
+	 * @param matchesPerRead
+	 * @return
+	 */
+	public static IReadBlock[] createReads(int numberOfReads, int matchesPerRead){
+		Random random = new Random(SEED);
+		IReadBlock[] reads = new IReadBlock[numberOfReads];
+		long matchUid = 0;
+		for(int i = 0; i < numberOfReads; i++){
+			IMatchBlock[] matches = new IMatchBlock[matchesPerRead];
+			for(int j = 0; j < matchesPerRead; j++){
+				SyntheticMatchBlock match = new SyntheticMatchBlock();
+				match.setUId(matchUid++);
+				match.setBitScore(50 + random.nextFloat() * 400);
+				match.setExpected((float) Math.pow(10, -random.nextInt(30)));
+				match.setPercentIdentity(60 + random.nextFloat() * 40);
+				match.setLength(50 + random.nextInt(250));
+				match.setRefSeqId("WP_" + (100000000 + random.nextInt(900000000)) + ".1");
+				match.setText(createAlignment(random));
+				for(String classification : CLASSIFICATIONS){
+					match.setId(classification, 1 + random.nextInt(50000));
+				}
+				matches[j] = match;
+			}
+			String name = String.format("read%09d", i);
+			String sequence = createSequence(random, 100 + random.nextInt(200));
+			reads[i] = new SyntheticReadBlock((long) i * 4096, ">" + name + " length=" + sequence.length(), sequence, matches);
+		}
+		return reads;
+	}
+
+	/**An iterator over the reads. Iterating does not copy the reads, a new iterator can be created for every invocation.
+	 *
+	 * @param reads
+	 * @return
+	 */
+	public static IReadBlockIterator createIterator(IReadBlock[] reads){
+		return new SyntheticReadBlockIterator(reads);
+	}
+
+	/**A classification block with numberOfClasses classes with random sizes
+	 *
+	 * @param classification
+	 * @param numberOfClasses
+	 * @return
+	 */
+	public static IClassificationBlock createClassificationBlock(String classification, int numberOfClasses){
+		Random random = new Random(SEED);
+		SyntheticClassificationBlock block = new SyntheticClassificationBlock(classification);
+		for(int i = 0; i < numberOfClasses; i++){
+			int sum = 1 + random.nextInt(10000);
+			block.setSum(1 + i * 3, sum);
+			block.setWeightedSum(1 + i * 3, sum);
+		}
+		return block;
+	}
+
+	private static String createSequence(Random random, int length){
+		char[] bases = {'A', 'C', 'G', 'T'};
+		char[] sequence = new char[length];
+		for(int i = 0; i < length; i++){
+			sequence[i] = bases[random.nextInt(4)];
+		}
+		return new String(sequence);
+	}
+
+	private static String createAlignment(Random random){
+		int length = 30 + random.nextInt(70);
+		StringBuilder text = new StringBuilder(">gi|").append(random.nextInt(Integer.MAX_VALUE)).append("| synthetic protein\n Length=").append(length * 3).append("\n\n Query: ");
+		for(int i = 0; i < length; i++){
+			text.append((char) ('A' + random.nextInt(20)));
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,71 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import megan.data.IReadBlock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan6server.pagination.PageManager;
+
+
+/**Many clients that open short queries on a shared {@link PageManager} at the same time.
+ * Every operation registers a paginator over a few hundred reads and pages through them until the paginator is closed.
+ * This stresses the registration, the token maps, the page cache and the read ahead rather than decoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class PaginatorChurnBenchmark {
+	public static final int READS = 200;
+	public static final int PAGE_SIZE = 50;
+
+	private PageManager pageManager;
+	private IReadBlock[] reads;
+
+	@Setup(Level.Trial)
+	public void createReads(){
+		reads = Fixtures.createReads(READS, 2);
+		pageManager = new PageManager();
+	}
+
+	@Benchmark
+	public void query(Blackhole blackhole){
+		String pageId = pageManager.registerPaginator(Fixtures.createIterator(reads), Fixtures.CLASSIFICATIONS, PAGE_SIZE, null);
+		while(pageId != null){
+			ReadBlockPage page = pageManager.retrieveReadBlockPage(pageId);
+			blackhole.consume(page);
+			pageId = page.getNextPageToken();
+		}
+	}
+
+}
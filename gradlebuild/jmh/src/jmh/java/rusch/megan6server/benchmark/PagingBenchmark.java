@@ -0,0 +1,92 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import megan.data.IReadBlock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan6server.pagination.PageManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**Paging through all reads of a file with the {@link PageManager}. The score is per read.
+ *
+ * pages only decodes the pages, pagesAsJson also serializes every page like the getNext endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PagingBenchmark {
+	public static final int READS = 10000;
+
+	@Param({"50", "1000"})
+	public int pageSize;
+
+	@Param({"0", "10"})
+	public int matchesPerRead;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private PageManager pageManager;
+	private IReadBlock[] reads;
+
+	@Setup(Level.Trial)
+	public void createReads(){
+		reads = Fixtures.createReads(READS, matchesPerRead);
+		pageManager = new PageManager();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public void pages(Blackhole blackhole){
+		String pageId = pageManager.registerPaginator(Fixtures.createIterator(reads), Fixtures.CLASSIFICATIONS, pageSize, null);
+		while(pageId != null){
+			ReadBlockPage page = pageManager.retrieveReadBlockPage(pageId);
+			blackhole.consume(page);
+			pageId = page.getNextPageToken();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public void pagesAsJson(Blackhole blackhole) throws IOException{
+		String pageId = pageManager.registerPaginator(Fixtures.createIterator(reads), Fixtures.CLASSIFICATIONS, pageSize, null);
+		while(pageId != null){
+			ReadBlockPage page = pageManager.retrieveReadBlockPage(pageId);
+			blackhole.consume(mapper.writeValueAsBytes(page));
+			pageId = page.getNextPageToken();
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.benchmark;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import rusch.megan6server.RMAFileHandler;
+
+
+/**{@link RMAFileHandler#resolveFileIdentifierToId(String)} with numeric ids and with paths, which is done for every request.
+ * Runs with 4 threads since requests resolve concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class ResolveFileIdBenchmark {
+	public static final int FILES = 10000;
+
+	private RMAFileHandler fileHandler;
+	private String[] ids;
+	private String[] paths;
+
+	@Setup(Level.Trial)
+	public void createCatalog() throws IOException{
+		paths = Fixtures.createCatalog(Fixtures.getCatalogRoot(), FILES);
+		fileHandler = new RMAFileHandler();
+		ids = new String[paths.length];
+		for(int i = 0; i < paths.length; i++){
+			ids[i] = String.valueOf(fileHandler.resolveFileIdentifierToId(paths[i]));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Position {
+		private int position = 0;
+
+		private int next(int length){
+			position = position + 7919 < length ? position + 7919 : (position + 7919) % length;
+			return position;
+		}
+	}
+
+	@Benchmark
+	public int resolveId(Position position) throws FileNotFoundException{
+		return fileHandler.resolveFileIdentifierToId(ids[position.next(ids.length)]);
+	}
+
+	@Benchmark
+	public int resolvePath(Position position) throws FileNotFoundException{
+		return fileHandler.resolveFileIdentifierToId(paths[position.next(paths.length)]);
+	}
+
+}
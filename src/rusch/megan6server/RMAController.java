@@ -20,24 +20,33 @@ package rusch.megan6server;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import jloda.util.Single;
 import megan.data.DataSelection;
 import megan.data.FindSelection;
+import megan.data.IClassificationBlock;
 import megan.data.IConnector;
-import megan.data.IReadBlockGetter;
 import megan.data.IReadBlockIterator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -48,14 +57,35 @@ import org.springframework.web.context.request.ServletRequestAttributes;
 
 import rusch.megan5client.ClassificationBlockServer;
 import rusch.megan5client.DataSelectionSerializer;
-import rusch.megan5client.Metadata;
 import rusch.megan5client.RMADataset;
-import rusch.megan5client.RMADatasetWithAuxiliary;
 import rusch.megan5client.ReadBlockServer;
 import rusch.megan5client.connector.RMAControllerMappings;
 import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan6server.batch.BatchExecutor;
+import rusch.megan6server.batch.BatchRequest;
 import rusch.megan6server.cache.AuxiliaryCache;
+import rusch.megan6server.cache.ClassSizeIndex;
+import rusch.megan6server.cache.ClassificationBlockCache;
+import rusch.megan6server.cache.DatasetListingCache;
+import rusch.megan6server.cache.DatasetListingCache.VARIANT;
+import rusch.megan6server.cache.FileVersion;
+import rusch.megan6server.cache.MetadataIndex;
+import rusch.megan6server.cache.PayloadCache;
+import rusch.megan6server.cache.ReadBlockGetterPool;
+import rusch.megan6server.compare.ComparisonBuilder;
+import rusch.megan6server.compare.ComparisonMatrix;
+import rusch.megan6server.filesystem.DatasetCatalog;
+import rusch.megan6server.find.CancelableReadBlockIterator;
+import rusch.megan6server.find.FindReadBlockIterator;
+import rusch.megan6server.find.ParallelFind;
 import rusch.megan6server.pagination.PageManager;
+import rusch.megan6server.pagination.ReadBlockGetterIterator;
+import rusch.megan6server.pagination.ReadCursor;
+import rusch.megan6server.pagination.ReadCursorResolver;
+import rusch.megan6server.pagination.ScanningReadBlockIterator;
+import rusch.megan6server.pagination.UidReadBlockIterator;
+import rusch.megan6server.serialization.BinaryReadBlockConverter;
+import rusch.megan6server.streaming.ReadBlockStreamWriter;
 
 /**The main class of the Megan6Server. Contains all mapping information and allows one to contact RMA files.
  * 
@@ -66,18 +96,84 @@ import rusch.megan6server.pagination.PageManager;
  *
  */
 @Controller
-public class RMAController {
+public class RMAController implements DisposableBean {
 	private static final Logger logger = LoggerFactory.getLogger(RMAController.class);
 	private RMAFileHandler rma3FileHandler;
 	private PageManager pageManager;
 	private AuxiliaryCache cache;
+	private DatasetListingCache listingCache;
+	private PayloadCache payloadCache;
+	private ClassificationBlockCache classificationCache;
+	private MetadataIndex metadataIndex;
+	private BatchExecutor batchExecutor;
+	private ComparisonBuilder comparisonBuilder;
+	private ParallelFind parallelFind;
+	private ReadBlockGetterPool getterPool;
+	private ClassSizeIndex classSizeIndex;
+	private ReadBlockStreamWriter streamWriter;
 	@Autowired
 	public TextFileAuthentication textFileAuthentication;
 	public RMAController(){
 		this.rma3FileHandler = new RMAFileHandler();
-		this.pageManager = new PageManager();
-		this.cache = new AuxiliaryCache();
+		this.pageManager = new PageManager(new ReadCursorResolver() {
+			@Override
+			public IReadBlockIterator openIterator(ReadCursor cursor) throws IOException {
+				return openCursor(cursor);
+			}
+
+			@Override
+			public String[] getClassificationNames(ReadCursor cursor) throws IOException {
+				return rma3FileHandler.getClassificationNames(String.valueOf(cursor.getFileId()));
+			}
+		});
+		this.metadataIndex = new MetadataIndex(MetadataIndex.getIndexFile(rma3FileHandler.getCatalog().getRootDirectory()));
+		this.cache = new AuxiliaryCache(metadataIndex);
+		this.listingCache = new DatasetListingCache(rma3FileHandler, cache);
+		this.payloadCache = new PayloadCache();
+		this.classificationCache = new ClassificationBlockCache();
+		this.classSizeIndex = new ClassSizeIndex(classificationCache);
+		this.streamWriter = new ReadBlockStreamWriter();
+		this.batchExecutor = new BatchExecutor();
+		this.comparisonBuilder = new ComparisonBuilder(batchExecutor);
+		this.parallelFind = new ParallelFind();
+		this.getterPool = new ReadBlockGetterPool();
+		// last, the listener may be called right away by a scan that is running
+		rma3FileHandler.addChangeListener(new RMAFileHandler.ChangeListener() {
+			@Override
+			public void filesChanged(Set<Integer> fileIds) {
+				if(fileIds == null){
+					classificationCache.clear();
+					classSizeIndex.clear();
+					cache.clear();
+					payloadCache.clear();
+					getterPool.clear();
+				}else{
+					for(int fileId : fileIds){
+						classificationCache.invalidate(fileId);
+						classSizeIndex.invalidate(fileId);
+						cache.invalidate(fileId);
+						payloadCache.invalidate(fileId);
+						getterPool.invalidate(fileId);
+					}
+				}
+				metadataIndex.retain(rma3FileHandler.getCatalog());
+			}
+		});
 	}
+
+	/**Write what has been learned about the files so that the next start is fast and close the open files
+	 * 
+	 */
+	@Override
+	public void destroy() {
+		pageManager.shutdown();
+		batchExecutor.shutdown();
+		parallelFind.shutdown();
+		getterPool.shutdown();
+		rma3FileHandler.shutdown();
+		metadataIndex.close();
+	}
+
 	@RequestMapping(value = RMAControllerMappings.GET_UID_MAPPING, method = RequestMethod.GET)
 	public  @ResponseBody long getUid( @RequestParam(value="fileId", required=true) String fileId) throws FileNotFoundException{
 		return (long) rma3FileHandler.resolveFileIdentifierToId(fileId);
@@ -88,116 +184,89 @@ public class RMAController {
 		return true;
 	}
 	@RequestMapping(value = "listDatasets", method = RequestMethod.GET)
-	public @ResponseBody RMADataset[] getAllDatasets(@RequestParam(value="includeMetadata", required=false) Boolean includeMetadata) throws IOException{
+	public void listDatasets(@RequestParam(value="includeMetadata", required=false) Boolean includeMetadata, HttpServletRequest request, HttpServletResponse response) throws IOException{
 		if(includeMetadata == null){
 			includeMetadata = false;
 		}
+		listingCache.getPayload(includeMetadata ? VARIANT.DATASETS_WITH_METADATA : VARIANT.DATASETS).write(request, response);
+	}
 
-		RMADataset[] datasets = rma3FileHandler.getAllDatasets();
-		for(RMADataset dataset : datasets){
-			try {
-				Map<String, String> name2value = Metadata.transformMetadataString(getAuxiliaryData(String.valueOf(dataset.getDatasetUid())).get("SAMPLE_ATTRIBUTES"));
-				if (name2value.containsKey("Description")) {
-					dataset.setDescription(name2value.get("Description"));
-				} else {
-					dataset.setDescription("No description provided");
-				}
-				if (includeMetadata) {
-					dataset.setMetadata(name2value);
-					dataset.getMetadata().put("@Source", dataset.getDatasetName());
-				}
-			}
-			catch(Exception ex){}
+	/**The datasets as served by listDatasets. Every call returns new objects.
+	 * 
+	 * @param includeMetadata
+	 * @return
+	 * @throws IOException
+	 */
+	public RMADataset[] getAllDatasets(Boolean includeMetadata) throws IOException{
+		if(includeMetadata == null){
+			includeMetadata = false;
 		}
-
-
-
-		return datasets;
+		return listingCache.getDatasets(includeMetadata);
 	}
 
 	/**Hidden method to retrieve an overview of all data together with aux data. This is for the view of MEGANServer
 	 * 
-	 * @return
 	 * @throws IOException
 	 */
 	@RequestMapping(value = "listDatasetsIncludeAuxiliary", method = RequestMethod.GET)
-	public @ResponseBody RMADatasetWithAuxiliary[] getAllDatasetsIncludeAuxiliary() throws IOException{
-
-
-		RMADataset[] datasets = getAllDatasets(true);
-		RMADatasetWithAuxiliary[] datasets2 = new RMADatasetWithAuxiliary[datasets.length];
-		for(int i=0; i<datasets.length; i++){
-			RMADataset dataset = datasets[i];
-			RMADatasetWithAuxiliary datasetAux = new RMADatasetWithAuxiliary();
-			Map<String, String> aux = getAuxiliaryData(String.valueOf(dataset.getDatasetUid()));
-			datasetAux.setAux(aux);
-			datasetAux.setDatasetName(dataset.getDatasetName());
-			datasetAux.setDatasetUid(dataset.getDatasetUid());
-			datasetAux.setDescription(dataset.getDescription());
-			datasetAux.setMetadata(dataset.getMetadata());
-			datasets2[i] = datasetAux;
-		}
-
-
-		return datasets2;
+	public void getAllDatasetsIncludeAuxiliary(HttpServletRequest request, HttpServletResponse response) throws IOException{
+		listingCache.getPayload(VARIANT.DATASETS_WITH_AUXILIARY).write(request, response);
 	}
 
 	@RequestMapping(value = "getAuxiliary", method = RequestMethod.GET)
-	public @ResponseBody Map<String, String> getAuxiliaryData(@RequestParam(value="fileId", required=true) String fileId) throws IOException{
-		return cache.getAuxBlock(rma3FileHandler, fileId);
+	public void getAuxiliaryData(@RequestParam(value="fileId", required=true) final String fileId, HttpServletRequest request, HttpServletResponse response) throws IOException{
+		FileVersion version = FileVersion.of(rma3FileHandler, fileId);
+		String key = "aux/" + version + "/" + cache.getGeneration();
+		payloadCache.get(version.getFileId(), key, false, new Callable<Map<String, String>>() {
+			@Override
+			public Map<String, String> call() throws IOException {
+				return cache.getAuxBlock(rma3FileHandler, fileId);
+			}
+		}).write(request, response);
 	}
 	@RequestMapping(value = "getAllClassificationNames", method = RequestMethod.GET)
 	public @ResponseBody String[] getAllClassificationNames(@RequestParam(value="fileId", required=true) String fileId) throws IOException {		
-		IConnector connector = rma3FileHandler.getIConnector(fileId);
-		return connector.getAllClassificationNames();
+		return rma3FileHandler.getClassificationNames(fileId);
 	}
 	@RequestMapping(value = "getClassificationBlock", method = RequestMethod.GET)
-	public @ResponseBody ClassificationBlockServer getClassificationsBlock(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="classification", required=true) String classification) throws IOException{
-		IConnector connector = rma3FileHandler.getIConnector(fileId);
-		return new ClassificationBlockServer(connector.getClassificationBlock(classification));
+	public void getClassificationsBlock(@RequestParam(value="fileId", required=true) final String fileId, @RequestParam(value="classification", required=true) final String classification, HttpServletRequest request, HttpServletResponse response) throws IOException{
+		FileVersion version = FileVersion.of(rma3FileHandler, fileId);
+		String key = "classificationBlock/" + version + "/" + classification;
+		payloadCache.get(version.getFileId(), key, BinaryReadBlockConverter.isPreferred(request), new Callable<ClassificationBlockServer>() {
+			@Override
+			public ClassificationBlockServer call() throws IOException {
+				return classificationCache.getBlock(rma3FileHandler, fileId, classification).getServer();
+			}
+		}).write(request, response, true);
 	}
 	@RequestMapping(value = "getAllReadsIterator", method = RequestMethod.GET)
-	public @ResponseBody ReadBlockPage getAllReadsIterator(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="dataSelection", required=false) String[] dataSelection) throws IOException {
-		DataSelection dataSel = null;
-		if(dataSelection == null){
-			dataSel= new DataSelection();
-			dataSel.setWantMatches(true);
-			dataSel.setWantReadText(true);
-		}else{
-			dataSel = DataSelectionSerializer.deserializeDataSelection(dataSelection);
-		}
-		if(minScore == null){
-			minScore = 0f;
-		}
-		if(maxExpected == null){
-			maxExpected = 1000000f;
-		}
+	public @ResponseBody ReadBlockPage getAllReadsIterator(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="dataSelection", required=false) String[] dataSelection, @RequestParam(value="pageSize", required=false) Integer pageSize, @RequestParam(value="pageBytes", required=false) Long pageBytes, @RequestParam(value="resumable", required=false) Boolean resumable) throws IOException {
+		DataSelection dataSel = createDataSelection(dataSelection);
+		minScore = getMinScore(minScore);
+		maxExpected = getMaxExpected(maxExpected);
 		IConnector connector = rma3FileHandler.getIConnector(fileId);
 		IReadBlockIterator it =  connector.getAllReadsIterator(minScore, maxExpected, dataSel.isWantReadText(), dataSel.isWantMatches());
-		ReadBlockPage page =  retrieveReadBlockPage(pageManager.registerPaginator(it, connector.getAllClassificationNames()));
+		ReadCursor cursor = null;
+		if(Boolean.TRUE.equals(resumable)){
+			cursor = ReadCursor.allReads(FileVersion.of(rma3FileHandler, fileId), minScore, maxExpected, dataSelection, pageSize, pageBytes);
+		}
+		ReadBlockPage page =  retrieveReadBlockPage(pageManager.registerPaginator(it, rma3FileHandler.getClassificationNames(fileId), pageSize, pageBytes, cursor));
 		page.setNextPageUrl(page.getNextPageUrl().replace("getAllReadsIterator", "loadPagedReads"));
 		return page;
 	}
 
 	@RequestMapping(value = "getReadsIterator", method = RequestMethod.GET)
-	public @ResponseBody ReadBlockPage getReadsIterator(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="classification", required=true) String classification, @RequestParam(value="classId", required=true) int classId, @RequestParam(value="dataSelection", required=false) String[] dataSelection) throws IOException {
-		DataSelection dataSel = null;
-		if(dataSelection == null){
-			dataSel= new DataSelection();
-			dataSel.setWantMatches(true);
-			dataSel.setWantReadText(true);
-		}else{
-			dataSel = DataSelectionSerializer.deserializeDataSelection(dataSelection);
-		}
-		if(minScore == null){
-			minScore = 0f;
-		}
-		if(maxExpected == null){
-			maxExpected = 1000000f;
-		}
+	public @ResponseBody ReadBlockPage getReadsIterator(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="classification", required=true) String classification, @RequestParam(value="classId", required=true) int classId, @RequestParam(value="dataSelection", required=false) String[] dataSelection, @RequestParam(value="pageSize", required=false) Integer pageSize, @RequestParam(value="pageBytes", required=false) Long pageBytes, @RequestParam(value="resumable", required=false) Boolean resumable) throws IOException {
+		DataSelection dataSel = createDataSelection(dataSelection);
+		minScore = getMinScore(minScore);
+		maxExpected = getMaxExpected(maxExpected);
 		IConnector connector = rma3FileHandler.getIConnector(fileId);
 		IReadBlockIterator it = connector.getReadsIterator(classification, classId, minScore, maxExpected, dataSel.isWantReadText(), dataSel.isWantMatches());
-		ReadBlockPage page =  retrieveReadBlockPage(pageManager.registerPaginator(it, connector.getAllClassificationNames()));
+		ReadCursor cursor = null;
+		if(Boolean.TRUE.equals(resumable)){
+			cursor = ReadCursor.reads(FileVersion.of(rma3FileHandler, fileId), minScore, maxExpected, dataSelection, classification, classId, pageSize, pageBytes);
+		}
+		ReadBlockPage page =  retrieveReadBlockPage(pageManager.registerPaginator(it, rma3FileHandler.getClassificationNames(fileId), pageSize, pageBytes, cursor));
 		page.setNextPageUrl(page.getNextPageUrl().replace("getReadsIterator", "loadPagedReads"));
 		return page;
 	}
@@ -206,7 +275,101 @@ public class RMAController {
 
 
 	@RequestMapping(value = "getReadsForMultipleClassIds", method = RequestMethod.GET)
-	public @ResponseBody ReadBlockPage getReadsIteratorForListOfClassIds(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="classification", required=true) String classification, @RequestParam(value="classIds", required=true) Integer[] classIds, @RequestParam(value="dataSelection", required=false) String[] dataSelection) throws IOException {
+	public @ResponseBody ReadBlockPage getReadsIteratorForListOfClassIds(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="classification", required=true) String classification, @RequestParam(value="classIds", required=true) Integer[] classIds, @RequestParam(value="dataSelection", required=false) String[] dataSelection, @RequestParam(value="pageSize", required=false) Integer pageSize, @RequestParam(value="pageBytes", required=false) Long pageBytes, @RequestParam(value="resumable", required=false) Boolean resumable) throws IOException {
+		DataSelection dataSel = createDataSelection(dataSelection);
+		minScore = getMinScore(minScore);
+		maxExpected = getMaxExpected(maxExpected);
+		IConnector connector = rma3FileHandler.getIConnector(fileId);
+		IReadBlockIterator it = connector.getReadsIteratorForListOfClassIds(classification, Arrays.asList(classIds), minScore, maxExpected, dataSel.isWantReadText(), dataSel.isWantMatches());
+		ReadCursor cursor = null;
+		if(Boolean.TRUE.equals(resumable)){
+			int[] ids = new int[classIds.length];
+			for(int i = 0; i < classIds.length; i++){
+				ids[i] = classIds[i];
+			}
+			cursor = ReadCursor.readsForClassIds(FileVersion.of(rma3FileHandler, fileId), minScore, maxExpected, dataSelection, classification, ids, pageSize, pageBytes);
+		}
+		ReadBlockPage page =  retrieveReadBlockPage(pageManager.registerPaginator(it, rma3FileHandler.getClassificationNames(fileId), pageSize, pageBytes, cursor));
+		page.setNextPageUrl(page.getNextPageUrl().replace("getReadsForMultipleClassIds", "loadPagedReads"));
+		return page;
+	}
+
+
+	@RequestMapping(value = "streamAllReads", method = RequestMethod.GET)
+	public void streamAllReads(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="dataSelection", required=false) String[] dataSelection, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		DataSelection dataSel = createDataSelection(dataSelection);
+		IConnector connector = rma3FileHandler.getIConnector(fileId);
+		IReadBlockIterator it =  connector.getAllReadsIterator(getMinScore(minScore), getMaxExpected(maxExpected), dataSel.isWantReadText(), dataSel.isWantMatches());
+		streamWriter.write(it, rma3FileHandler.getClassificationNames(fileId), request, response);
+	}
+
+	@RequestMapping(value = "streamReads", method = RequestMethod.GET)
+	public void streamReads(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="classification", required=true) String classification, @RequestParam(value="classId", required=true) int classId, @RequestParam(value="dataSelection", required=false) String[] dataSelection, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		DataSelection dataSel = createDataSelection(dataSelection);
+		IConnector connector = rma3FileHandler.getIConnector(fileId);
+		IReadBlockIterator it = connector.getReadsIterator(classification, classId, getMinScore(minScore), getMaxExpected(maxExpected), dataSel.isWantReadText(), dataSel.isWantMatches());
+		streamWriter.write(it, rma3FileHandler.getClassificationNames(fileId), request, response);
+	}
+
+	@RequestMapping(value = "streamReadsForMultipleClassIds", method = RequestMethod.GET)
+	public void streamReadsForListOfClassIds(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="classification", required=true) String classification, @RequestParam(value="classIds", required=true) Integer[] classIds, @RequestParam(value="dataSelection", required=false) String[] dataSelection, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		DataSelection dataSel = createDataSelection(dataSelection);
+		IConnector connector = rma3FileHandler.getIConnector(fileId);
+		IReadBlockIterator it = connector.getReadsIteratorForListOfClassIds(classification, Arrays.asList(classIds), getMinScore(minScore), getMaxExpected(maxExpected), dataSel.isWantReadText(), dataSel.isWantMatches());
+		streamWriter.write(it, rma3FileHandler.getClassificationNames(fileId), request, response);
+	}
+
+	@RequestMapping(value = "streamFindAllReads", method = RequestMethod.GET)
+	public void streamFindAllReads(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="regEx", required=true) String regEx, @RequestParam(value="findSelection", required=false) String[] findSelection, HttpServletRequest request, HttpServletResponse response) throws IOException{
+		FindSelection findSel = createFindSelection(findSelection);
+		IConnector connector = rma3FileHandler.getIConnector(fileId);
+		IReadBlockIterator it = openFind(connector, regEx, findSel);
+		streamWriter.write(it, rma3FileHandler.getClassificationNames(fileId), request, response);
+	}
+
+	/**Search many files for a regular expression in parallel. Hits are streamed as they are found, in no particular order.
+	 * 
+	 * @param fileIds
+	 * @param regEx
+	 * @param findSelection
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "streamFindAllReadsInFiles", method = RequestMethod.GET)
+	public void streamFindAllReadsInFiles(@RequestParam(value="fileIds", required=true) String[] fileIds, @RequestParam(value="regEx", required=true) String regEx, @RequestParam(value="findSelection", required=false) String[] findSelection, HttpServletRequest request, HttpServletResponse response) throws IOException{
+		streamWriter.writeHits(fileIds, regEx, createFindSelection(findSelection), parallelFind, new ParallelFind.ReadSource() {
+			@Override
+			public IReadBlockIterator openIterator(String fileId, boolean wantReadText, boolean wantMatches) throws IOException {
+				return rma3FileHandler.getIConnector(fileId).getAllReadsIterator(getMinScore(null), getMaxExpected(null), wantReadText, wantMatches);
+			}
+
+			@Override
+			public String[] getClassificationNames(String fileId) throws IOException {
+				return rma3FileHandler.getClassificationNames(fileId);
+			}
+		}, request, response);
+	}
+
+	/**Start a find that is canceled when the returned iterator is closed
+	 * 
+	 * @param connector
+	 * @param regEx
+	 * @param findSel
+	 * @return
+	 * @throws IOException
+	 */
+	private static IReadBlockIterator openFind(IConnector connector, String regEx, FindSelection findSel) throws IOException{
+		Single<Boolean> canceled = new Single<Boolean>(false);
+		return new CancelableReadBlockIterator(connector.getFindAllReadsIterator(regEx, findSel, canceled), canceled);
+	}
+
+	/**The data selection of a request. By default reads come with text and matches.
+	 * 
+	 * @param dataSelection
+	 * @return
+	 */
+	private static DataSelection createDataSelection(String[] dataSelection){
 		DataSelection dataSel = null;
 		if(dataSelection == null){
 			dataSel= new DataSelection();
@@ -215,62 +378,287 @@ public class RMAController {
 		}else{
 			dataSel = DataSelectionSerializer.deserializeDataSelection(dataSelection);
 		}
-		if(minScore == null){
-			minScore = 0f;
+		return dataSel;
+	}
+
+	/**The find selection of a request. By default all fields are searched.
+	 * 
+	 * @param findSelection
+	 * @return
+	 */
+	private static FindSelection createFindSelection(String[] findSelection){
+		FindSelection findSel = null;
+		if(findSelection == null){
+			findSel = new FindSelection();
+			findSel.useMatchText = true;
+			findSel.useReadHeader = true;
+			findSel.useReadName = true;
+			findSel.useReadSequence = true;
+		}else{
+			findSel = DataSelectionSerializer.deserializeFindSelection(findSelection);
+		}
+		return findSel;
+	}
+
+	/**A find that can be reopened after a hit. It reads the file with {@link #openAllReadsAfter} and counts the reads it has scanned.
+	 * 
+	 * @param fileId
+	 * @param connector
+	 * @param regEx
+	 * @param findSel
+	 * @param lastReadUid the hit to continue after or -1 to start at the first read
+	 * @param scannedReads number of reads up to and including lastReadUid
+	 * @return
+	 * @throws IOException
+	 */
+	private IReadBlockIterator openResumableFind(String fileId, IConnector connector, String regEx, FindSelection findSel, long lastReadUid, long scannedReads) throws IOException{
+		boolean wantReadText = findSel.useReadName || findSel.useReadHeader || findSel.useReadSequence;
+		return new FindReadBlockIterator(openAllReadsAfter(fileId, connector, getMinScore(null), getMaxExpected(null), wantReadText, findSel.useMatchText, lastReadUid, scannedReads), regEx, findSel);
+	}
+
+	/**All reads of a file after a given read. RMA6 files seek to that read with a getter and go on with getReadBlock(-1).
+	 * That getReadBlock(-1) returns the next read is not known for DAA, RMA2 and RMA3 files, for them the uids of the file
+	 * are listed from the start and the reads after the given one are loaded by uid.
+	 * 
+	 * @param fileId
+	 * @param connector
+	 * @param minScore
+	 * @param maxExpected
+	 * @param wantReadText
+	 * @param wantMatches
+	 * @param lastReadUid the read to continue after or -1 to start at the first read
+	 * @param scannedReads number of reads up to and including lastReadUid
+	 * @return
+	 * @throws IOException
+	 */
+	private ScanningReadBlockIterator openAllReadsAfter(String fileId, IConnector connector, float minScore, float maxExpected, boolean wantReadText, boolean wantMatches, long lastReadUid, long scannedReads) throws IOException{
+		if(rma3FileHandler.getFileType(fileId) == RMAFileHandler.FILETYPE.RMA6_FILE){
+			return new ReadBlockGetterIterator(connector.getReadBlockGetter(minScore, maxExpected, wantReadText, wantMatches), lastReadUid, scannedReads);
 		}
-		if(maxExpected == null){
-			maxExpected = 1000000f;
+		IReadBlockIterator uids = connector.getAllReadsIterator(minScore, maxExpected, false, false);
+		return new UidReadBlockIterator(uids, connector.getReadBlockGetter(minScore, maxExpected, wantReadText, wantMatches), lastReadUid);
+	}
+
+	/**Reopen the query of a cursor after its last read. All reads of RMA6 files start with a seek to that read, see {@link #openAllReadsAfter}.
+	 * The reads of classes can only be listed from the start, they are passed without text and matches up to that read.
+	 * 
+	 * @param cursor
+	 * @return the iterator or null if the file is not in the catalog anymore or has been modified
+	 * @throws IOException
+	 */
+	private IReadBlockIterator openCursor(ReadCursor cursor) throws IOException{
+		String fileId = String.valueOf(cursor.getFileId());
+		try{
+			if(!FileVersion.of(rma3FileHandler, fileId).equals(cursor.getFileVersion())){
+				return null;
+			}
+		}catch(FileNotFoundException e){
+			return null;
 		}
 		IConnector connector = rma3FileHandler.getIConnector(fileId);
-		IReadBlockIterator it = connector.getReadsIteratorForListOfClassIds(classification, Arrays.asList(classIds), minScore, maxExpected, dataSel.isWantReadText(), dataSel.isWantMatches());
-		ReadBlockPage page =  retrieveReadBlockPage(pageManager.registerPaginator(it, connector.getAllClassificationNames()));
-		page.setNextPageUrl(page.getNextPageUrl().replace("getReadsForMultipleClassIds", "loadPagedReads"));
-		return page;
+		long lastReadUid = cursor.getLastReadUid();
+		switch (cursor.getType()) {
+		case ALL_READS:{
+			DataSelection dataSel = createDataSelection(cursor.getDataSelection());
+			if(lastReadUid < 0){
+				return connector.getAllReadsIterator(cursor.getMinScore(), cursor.getMaxExpected(), dataSel.isWantReadText(), dataSel.isWantMatches());
+			}
+			return openAllReadsAfter(fileId, connector, cursor.getMinScore(), cursor.getMaxExpected(), dataSel.isWantReadText(), dataSel.isWantMatches(), lastReadUid, cursor.getScannedReads());
+		}
+		case READS:{
+			DataSelection dataSel = createDataSelection(cursor.getDataSelection());
+			if(lastReadUid < 0){
+				return connector.getReadsIterator(cursor.getClassification(), cursor.getClassIds()[0], cursor.getMinScore(), cursor.getMaxExpected(), dataSel.isWantReadText(), dataSel.isWantMatches());
+			}
+			IReadBlockIterator uids = connector.getReadsIterator(cursor.getClassification(), cursor.getClassIds()[0], cursor.getMinScore(), cursor.getMaxExpected(), false, false);
+			return new UidReadBlockIterator(uids, connector.getReadBlockGetter(cursor.getMinScore(), cursor.getMaxExpected(), dataSel.isWantReadText(), dataSel.isWantMatches()), lastReadUid);
+		}
+		case READS_FOR_CLASS_IDS:{
+			DataSelection dataSel = createDataSelection(cursor.getDataSelection());
+			List<Integer> classIds = new ArrayList<Integer>();
+			for(int classId : cursor.getClassIds()){
+				classIds.add(classId);
+			}
+			if(lastReadUid < 0){
+				return connector.getReadsIteratorForListOfClassIds(cursor.getClassification(), classIds, cursor.getMinScore(), cursor.getMaxExpected(), dataSel.isWantReadText(), dataSel.isWantMatches());
+			}
+			IReadBlockIterator uids = connector.getReadsIteratorForListOfClassIds(cursor.getClassification(), classIds, cursor.getMinScore(), cursor.getMaxExpected(), false, false);
+			return new UidReadBlockIterator(uids, connector.getReadBlockGetter(cursor.getMinScore(), cursor.getMaxExpected(), dataSel.isWantReadText(), dataSel.isWantMatches()), lastReadUid);
+		}
+		case FIND:
+			return openResumableFind(fileId, connector, cursor.getRegEx(), createFindSelection(cursor.getFindSelection()), lastReadUid, cursor.getScannedReads());
+		default:
+			return null;
+		}
+	}
+
+	/**The minimum score of a request. By default all matches are kept.
+	 * 
+	 * @param minScore
+	 * @return
+	 */
+	private static float getMinScore(Float minScore){
+		return minScore == null ? 0f : minScore;
+	}
+
+	/**The maximum expected value of a request. By default all matches are kept.
+	 * 
+	 * @param maxExpected
+	 * @return
+	 */
+	private static float getMaxExpected(Float maxExpected){
+		return maxExpected == null ? 1000000f : maxExpected;
 	}
 
 
 	@RequestMapping(value = "getClassificationSize", method = RequestMethod.GET)
 	public  @ResponseBody int getClassificationSize(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="classification", required=true) String classificationName) throws IOException{
-		IConnector connector = rma3FileHandler.getIConnector(fileId);
-		return connector.getClassificationSize(classificationName);
+		FileVersion version = FileVersion.of(rma3FileHandler, fileId);
+		int size = metadataIndex.getClassificationSize(version, classificationName);
+		if(size < 0){
+			size = classSizeIndex.getClassSizes(rma3FileHandler, fileId, classificationName).getNumberOfClasses();
+			metadataIndex.putClassificationSize(version, classificationName, size);
+		}
+		return size;
 	}
 
 	@RequestMapping(value = "getClassSize", method = RequestMethod.GET)
 	public  @ResponseBody int getClassSize(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="classification", required=true) String classificationName, @RequestParam(value="classId", required=true) int classId) throws IOException{
-		IConnector connector = rma3FileHandler.getIConnector(fileId);
-		return connector.getClassSize(classificationName, classId);
+		return classSizeIndex.getClassSizes(rma3FileHandler, fileId, classificationName).getSize(classId);
+	}
+
+	/**The sizes of many classes at once
+	 * 
+	 * @param fileId
+	 * @param classificationName
+	 * @param classIds
+	 * @return the number of reads of every class in the order of classIds
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "getClassSizes", method = RequestMethod.GET)
+	public  @ResponseBody int[] getClassSizes(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="classification", required=true) String classificationName, @RequestParam(value="classIds", required=true) int[] classIds) throws IOException{
+		return classSizeIndex.getClassSizes(rma3FileHandler, fileId, classificationName).getSizes(classIds);
 	}
 
 
 	@RequestMapping(value = "getFindAllReadsIterator", method = RequestMethod.GET)
-	public @ResponseBody ReadBlockPage getFindAllReadsIterator(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="regEx", required=true) String regEx, @RequestParam(value="findSelection", required=false) String[] findSelection) throws IOException{
-		FindSelection findSel = null;
-		if(findSelection == null){
-			findSel = new FindSelection();
-			findSel.useMatchText = true;
-			findSel.useReadHeader = true;
-			findSel.useReadName = true;
-			findSel.useReadSequence = true;
+	public @ResponseBody ReadBlockPage getFindAllReadsIterator(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="regEx", required=true) String regEx, @RequestParam(value="findSelection", required=false) String[] findSelection, @RequestParam(value="pageSize", required=false) Integer pageSize, @RequestParam(value="pageBytes", required=false) Long pageBytes, @RequestParam(value="resumable", required=false) Boolean resumable) throws IOException{
+		FindSelection findSel = createFindSelection(findSelection);
+		IConnector connector = rma3FileHandler.getIConnector(fileId);
+		IReadBlockIterator it;
+		ReadCursor cursor = null;
+		if(Boolean.TRUE.equals(resumable)){
+			cursor = ReadCursor.find(FileVersion.of(rma3FileHandler, fileId), regEx, findSelection, pageSize, pageBytes);
+			it = openResumableFind(fileId, connector, regEx, findSel, -1, 0);
 		}else{
-			findSel = DataSelectionSerializer.deserializeFindSelection(findSelection);
+			it = openFind(connector, regEx, findSel);
 		}
-		IConnector connector = rma3FileHandler.getIConnector(fileId);
-		IReadBlockIterator it = connector.getFindAllReadsIterator(regEx, findSel, new Single<Boolean>(false));
-		ReadBlockPage page =  retrieveReadBlockPage(pageManager.registerPaginator(it, connector.getAllClassificationNames()));
+		ReadBlockPage page =  retrieveReadBlockPage(pageManager.registerPaginator(it, rma3FileHandler.getClassificationNames(fileId), pageSize, pageBytes, cursor));
 		page.setNextPageUrl(page.getNextPageUrl().replace("getFindAllReadsIterator", "loadPagedReads"));
 		return page;
 
 	}
 	@RequestMapping(value = "getNumberOfReads", method = RequestMethod.GET)
 	public @ResponseBody int getNumberOfReads(@RequestParam(value="fileId", required=true) String fileId) throws IOException{
-		IConnector connector = rma3FileHandler.getIConnector(fileId);
-		return connector.getNumberOfReads();
+		FileVersion version = FileVersion.of(rma3FileHandler, fileId);
+		long numberOfReads = metadataIndex.getNumberOfReads(version);
+		if(numberOfReads < 0){
+			IConnector connector = rma3FileHandler.getIConnector(fileId);
+			numberOfReads = connector.getNumberOfReads();
+			metadataIndex.putNumberOfReads(version, numberOfReads);
+		}
+		return (int) numberOfReads;
 	}
 
 	@RequestMapping(value = "getNumberOfMatches", method = RequestMethod.GET)
 	public @ResponseBody int getNumberOfMatches(@RequestParam(value="fileId", required=true) String fileId) throws IOException{
-		IConnector connector = rma3FileHandler.getIConnector(fileId);
-		return connector.getNumberOfMatches();
+		FileVersion version = FileVersion.of(rma3FileHandler, fileId);
+		long numberOfMatches = metadataIndex.getNumberOfMatches(version);
+		if(numberOfMatches < 0){
+			IConnector connector = rma3FileHandler.getIConnector(fileId);
+			numberOfMatches = connector.getNumberOfMatches();
+			metadataIndex.putNumberOfMatches(version, numberOfMatches);
+		}
+		return (int) numberOfMatches;
+	}
+
+	/**Run several operations on several files in one request. The files are processed in parallel.
+	 * 
+	 * Supported operations are getUid, getNumberOfReads, getNumberOfMatches, getAuxiliary, getAllClassificationNames and,
+	 * for every given classification, getClassificationBlock and getClassificationSize.
+	 * The request is posted as JSON since a list of files does not fit into a query string.
+	 * 
+	 * @param request the files, operations and classifications
+	 * @return the results by file and operation
+	 */
+	@RequestMapping(value = "batch", method = RequestMethod.POST)
+	public @ResponseBody Map<String, Map<String, Object>> batch(@RequestBody BatchRequest request){
+		if(request.getFileIds() == null || request.getOperations() == null){
+			throw new IllegalArgumentException("A batch needs fileIds and operations.");
+		}
+		final String[] classifications = request.getClassifications();
+		return batchExecutor.execute(request.getFileIds(), request.getOperations(), new BatchExecutor.Operation() {
+			@Override
+			public Object run(String fileId, String operation) throws Exception {
+				return runBatchOperation(fileId, operation, classifications);
+			}
+		});
+	}
+
+	private Object runBatchOperation(String fileId, String operation, String[] classifications) throws IOException{
+		switch (operation) {
+		case "getUid":
+			return getUid(fileId);
+		case "getNumberOfReads":
+			return getNumberOfReads(fileId);
+		case "getNumberOfMatches":
+			return getNumberOfMatches(fileId);
+		case "getAuxiliary":
+			return cache.getAuxBlock(rma3FileHandler, fileId);
+		case "getAllClassificationNames":
+			return getAllClassificationNames(fileId);
+		case "getClassificationBlock":{
+			Map<String, ClassificationBlockServer> classification2Block = new LinkedHashMap<String, ClassificationBlockServer>();
+			for(String classification : getBatchClassifications(classifications)){
+				classification2Block.put(classification, classificationCache.getBlock(rma3FileHandler, fileId, classification).getServer());
+			}
+			return classification2Block;
+		}
+		case "getClassificationSize":{
+			Map<String, Integer> classification2Size = new LinkedHashMap<String, Integer>();
+			for(String classification : getBatchClassifications(classifications)){
+				classification2Size.put(classification, getClassificationSize(fileId, classification));
+			}
+			return classification2Size;
+		}
+		default:
+			throw new IllegalArgumentException("Unknown operation: " + operation);
+		}
+	}
+
+	private static String[] getBatchClassifications(String[] classifications){
+		if(classifications == null || classifications.length == 0){
+			throw new IllegalArgumentException("The operation needs classifications.");
+		}
+		return classifications;
+	}
+
+	/**The counts of one classification for several files as one class by sample matrix
+	 * 
+	 * @param fileIds
+	 * @param classification
+	 * @param normalization none (default), relative or scaled
+	 * @param weighted use weighted sums instead of read counts
+	 * @return
+	 */
+	@RequestMapping(value = "getComparison", method = RequestMethod.GET)
+	public @ResponseBody ComparisonMatrix getComparison(@RequestParam(value="fileIds", required=true) String[] fileIds, @RequestParam(value="classification", required=true) String classification, @RequestParam(value="normalization", required=false) String normalization, @RequestParam(value="weighted", required=false) Boolean weighted){
+		return comparisonBuilder.build(fileIds, classification, ComparisonBuilder.parseNormalization(normalization), Boolean.TRUE.equals(weighted), new ComparisonBuilder.BlockLoader() {
+			@Override
+			public IClassificationBlock load(String fileId, String classification) throws IOException {
+				return classificationCache.getBlock(rma3FileHandler, fileId, classification).getClassificationBlock();
+			}
+		});
 	}
 
 	@RequestMapping(value={"", "/", "help"}, method = RequestMethod.GET)
@@ -285,26 +673,56 @@ public class RMAController {
 
 	@RequestMapping(value = "getRead", method = RequestMethod.GET)
 	public @ResponseBody ReadBlockServer getReadsBlock(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="readUid", required=true) long readUid, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="dataSelection", required=false) String[] dataSelection) throws IOException {
-		DataSelection dataSel = null;
-		if(dataSelection == null){
-			dataSel= new DataSelection();
-			dataSel.setWantMatches(true);
-			dataSel.setWantReadText(true);
-		}else{
-			dataSel = DataSelectionSerializer.deserializeDataSelection(dataSelection);
+		DataSelection dataSel = createDataSelection(dataSelection);
+		minScore = getMinScore(minScore);
+		maxExpected = getMaxExpected(maxExpected);
+		String[] classnames = rma3FileHandler.getClassificationNames(fileId);
+		ReadBlockGetterPool.Lease lease = getterPool.borrow(rma3FileHandler, fileId, minScore, maxExpected, dataSel.isWantReadText(), dataSel.isWantMatches());
+		boolean reusable = false;
+		try{
+			ReadBlockServer s =  new ReadBlockServer(lease.getGetter().getReadBlock(readUid), classnames);
+			reusable = true;
+			return s;
+		}finally{
+			getterPool.release(lease, reusable);
 		}
-		if(minScore == null){
-			minScore = 0f;
+	}
+
+	/**Get several reads of a file at once. The reads are fetched in the order of their uids, which is their position in the file,
+	 * and returned in the order of the request.
+	 * 
+	 * @param fileId
+	 * @param readUids
+	 * @param minScore
+	 * @param maxExpected
+	 * @param dataSelection
+	 * @return
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "getReads", method = RequestMethod.GET)
+	public @ResponseBody ReadBlockServer[] getReadBlocks(@RequestParam(value="fileId", required=true) String fileId, @RequestParam(value="readUids", required=true) long[] readUids, @RequestParam(value="minScore", required=false) Float minScore, @RequestParam(value="maxExpected", required=false) Float maxExpected, @RequestParam(value="dataSelection", required=false) String[] dataSelection) throws IOException {
+		DataSelection dataSel = createDataSelection(dataSelection);
+		String[] classnames = rma3FileHandler.getClassificationNames(fileId);
+		long[] sortedUids = readUids.clone();
+		Arrays.sort(sortedUids);
+		Map<Long, ReadBlockServer> uid2Read = new HashMap<Long, ReadBlockServer>();
+		ReadBlockGetterPool.Lease lease = getterPool.borrow(rma3FileHandler, fileId, getMinScore(minScore), getMaxExpected(maxExpected), dataSel.isWantReadText(), dataSel.isWantMatches());
+		boolean reusable = false;
+		try{
+			for(long readUid : sortedUids){
+				if(!uid2Read.containsKey(readUid)){
+					uid2Read.put(readUid, new ReadBlockServer(lease.getGetter().getReadBlock(readUid), classnames));
+				}
+			}
+			reusable = true;
+		}finally{
+			getterPool.release(lease, reusable);
 		}
-		if(maxExpected == null){
-			maxExpected = 1000000f;
+		ReadBlockServer[] reads = new ReadBlockServer[readUids.length];
+		for(int i = 0; i < readUids.length; i++){
+			reads[i] = uid2Read.get(readUids[i]);
 		}
-		IConnector connector = rma3FileHandler.getIConnector(fileId);
-		String[] classnames = connector.getAllClassificationNames();
-		IReadBlockGetter getter =  connector.getReadBlockGetter(minScore, maxExpected, dataSel.isWantReadText(), dataSel.isWantMatches());
-		ReadBlockServer s =  new ReadBlockServer(getter.getReadBlock(readUid), classnames);
-		getter.close();
-		return s;
+		return reads;
 	}
 
 
@@ -341,7 +759,7 @@ public class RMAController {
 		now = System.currentTimeMillis() - now;
 		//populate cache
 		getAllDatasets(false);
-		return String.format("Updated Filesystem. %d datasets have been found. Updating required %d ms.", rma3FileHandler.getAllDatasets().length, now);
+		return String.format("Updated Filesystem. %d datasets have been found. Updating required %d ms.", rma3FileHandler.getCatalog().size(), now);
 	}
 
 	@Secured("ROLE_ADMIN")
@@ -22,18 +22,21 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import megan.daa.connector.DAAConnector;
-import megan.daa.io.DAAParser;
 import megan.data.IConnector;
 import megan.rma2.RMA2Connector;
-import megan.rma2.RMA2File;
 import megan.rma3.RMA3Connector;
 import megan.rma6.RMA6Connector;
 
@@ -42,6 +45,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
 import rusch.megan5client.RMADataset;
+import rusch.megan6server.cache.ConnectorCache;
+import rusch.megan6server.filesystem.DatasetCatalog;
+import rusch.megan6server.filesystem.DatasetWatcher;
+import rusch.megan6server.filesystem.FileSystemScanner;
+import rusch.megan6server.filesystem.ScanManifest;
 
 /**
  * 
@@ -53,9 +61,14 @@ import rusch.megan5client.RMADataset;
  *
  */
 public class RMAFileHandler {
-	private File rootDirectory;
-	private final Map<Integer, String> id2FileName;
-	private final Map<Integer, FILETYPE> id2FileType;
+	private volatile DatasetCatalog catalog;
+	private final FileSystemScanner scanner;
+	private final ConnectorCache connectorCache;
+	private final Object updateLock = new Object();
+	private volatile DatasetWatcher watcher;
+	private final ScheduledExecutorService rescanScheduler;
+	private volatile boolean isShutdown = false;
+	private final List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
 	public static enum FILETYPE {RMA2_FILE, RMA3_FILE, RMA6_FILE, DAA_FILE};
 	private static final Logger logger = LoggerFactory.getLogger(RMAFileHandler.class);
 
@@ -63,25 +76,117 @@ public class RMAFileHandler {
 	 * 
 	 */
 	public RMAFileHandler(){
-		id2FileName = new HashMap<>();
-		id2FileType = new HashMap<>();
+		catalog = DatasetCatalog.EMPTY;
+		scanner = new FileSystemScanner();
+		connectorCache = new ConnectorCache();
+		rescanScheduler = startRescans(ServerProperties.getLong("rma.rescanInterval", 0));
 		try {
-			updateFilesystem();
+			if(ServerProperties.getBoolean("rma.startFromManifest", true) && startFromManifest()){
+				updateFilesystemInBackground();
+			}else{
+				updateFilesystem();
+			}
 		} catch (IOException e) {
 			logger.error("Exception init filesystem: ", e);
 		}
 	}
 
+	/**
+	 * Serve the files of the last scan right away. Every file of the manifest is checked with a stat before it is published, so files
+	 * that are gone are not served and files that have changed are not served with the size and modification time of the last scan,
+	 * which would match index records and cache entries of their old content. New files are found by the full scan afterwards.
+	 * 
+	 * @return false if there is no manifest of the root directory
+	 * @throws IOException
+	 */
+	private boolean startFromManifest() throws IOException{
+		File rootDirectory = loadRootDirectory();
+		ScanManifest manifest = scanner.verifyManifest(rootDirectory);
+		if(manifest.size() == 0){
+			return false;
+		}
+		synchronized (updateLock) {
+			publish(rootDirectory, manifest, null);
+		}
+		logger.info(String.format("Started with %s RMA/DAA files of the last scan.", catalog.size()));
+		return true;
+	}
+
+	private void updateFilesystemInBackground(){
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					updateFilesystem();
+				} catch (IOException e) {
+					logger.error("Exception updating filesystem: ", e);
+				}
+			}
+		}, "RMAFileHandler-scan");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Scan the root directory every interval seconds, as a backstop for changes the {@link DatasetWatcher} does not see
+	 * or when it is switched off.
+	 * 
+	 * @param interval 0 for no rescans
+	 * @return the scheduler or null
+	 */
+	private ScheduledExecutorService startRescans(long interval){
+		if(interval <= 0){
+			return null;
+		}
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "RMAFileHandler-rescan");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					updateFilesystem();
+				} catch (IOException | RuntimeException e) {
+					logger.error("Exception updating filesystem: ", e);
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+		return scheduler;
+	}
+
 
 	/**
 	 * Update the files which are there.
 	 * 
-	 * TODO this should probably happen either on trigger command, or should watch if there are changes, or every once in a while
+	 * The scan is done by {@link FileSystemScanner} and the result is swapped in when it is complete.
+	 * Afterwards the {@link DatasetWatcher} keeps the files up to date, this is only needed if events got lost or the root folder changed.
 	 * @throws IOException 
 	 * 
 	 * 
 	 */
-	protected synchronized void updateFilesystem() throws IOException{
+	protected void updateFilesystem() throws IOException{
+		File rootDirectory = loadRootDirectory();
+		synchronized (updateLock) {
+			logger.info("Updating filesystem.");
+			publish(rootDirectory, scanner.scan(rootDirectory), null);
+			startWatcher(rootDirectory);
+			logger.info(String.format("Done updating filesystem. Found %s RMA/DAA files", catalog.size()));
+		}
+	}
+
+	/**
+	 * The root directory from rma.rootFolder
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	private File loadRootDirectory() throws IOException{
 		Properties prop = new Properties();
 		InputStream input = this.getClass().getClassLoader().getResourceAsStream("meganserver.properties");
 		if(input == null){
@@ -107,61 +212,182 @@ public class RMAFileHandler {
 		if (!rootDirectory.canRead())
 			throw new IOException("Cannot read: " + rootDirectory);
 		logger.info("Set root directory to: " + rootDirectory);
-		this.rootDirectory = rootDirectory;
-		logger.info("Updating filesystem.");
-		final List<File> folders = new ArrayList<File>();
-		folders.add(rootDirectory);
-
-		id2FileName.clear();
-		id2FileType.clear();
-		while(!folders.isEmpty()){
-			final List<String> rmafiles = new ArrayList<String>();
-			for(String file : folders.get(0).list()){
-				String file2 = folders.get(0) + File.separator + file;
-				//				if(RMAFileFilter.getInstance().accept(new File(file2)) && !file.endsWith(".rmaz")){ The new RMAFileFilter doesnt support this.. so lets skip
-				rmafiles.add(file2); 
-				//				}
-				File f = new File(file2);
-				if(f.isDirectory()){
-					if(f.canRead()){
-						folders.add(f);
-					}
+		return rootDirectory;
+	}
+
+	/**
+	 * Apply changes reported by the {@link DatasetWatcher}. Only the changed files are probed.
+	 * 
+	 * @param paths
+	 */
+	private void updateFiles(Set<String> paths){
+		synchronized (updateLock) {
+			try {
+				File rootDirectory = catalog.getRootDirectory();
+				publish(rootDirectory, scanner.update(rootDirectory, paths), paths);
+				logger.info(String.format("Applied %d filesystem changes. Found %s RMA/DAA files", paths.size(), catalog.size()));
+			} catch (IOException e) {
+				logger.error("Exception applying filesystem changes: ", e);
+			}
+		}
+	}
+
+	/**
+	 * Swap in the files of a scan. Readers see either the old or the new {@link DatasetCatalog}, never one that is being built.
+	 * 
+	 * @param rootDirectory
+	 * @param manifest
+	 * @param changedPaths the paths that have changed or null after a full scan. Then the files of the previous catalog are compared, unless the root directory changed.
+	 */
+	private void publish(File rootDirectory, ScanManifest manifest, Collection<String> changedPaths){
+		DatasetCatalog previous = this.catalog;
+		DatasetCatalog catalog = DatasetCatalog.build(rootDirectory, manifest, previous.getVersion() + 1);
+		this.catalog = catalog;
+		Set<Integer> changedIds = null;
+		if(changedPaths == null && rootDirectory.equals(previous.getRootDirectory())){
+			// a full scan of the same directory, compare the files
+			changedIds = new HashSet<Integer>();
+			for(DatasetCatalog.Entry entry : catalog.getEntries()){
+				DatasetCatalog.Entry previousEntry = previous.get(entry.getId());
+				if(previousEntry == null || previousEntry.getSize() != entry.getSize() || previousEntry.getLastModified() != entry.getLastModified()){
+					changedIds.add(entry.getId());
+				}
+			}
+			for(DatasetCatalog.Entry entry : previous.getEntries()){
+				if(catalog.get(entry.getId()) == null){
+					changedIds.add(entry.getId());
 				}
 			}
-			for (String rmafile : rmafiles) {
-				int id = Math.abs(rmafile.hashCode());
-				FILETYPE fileType = null;
-				if (rmafile.toLowerCase().endsWith(".rma2")) {
-					fileType = FILETYPE.RMA2_FILE;
-				} else if (rmafile.toLowerCase().endsWith(".rma3")) {
-					fileType = FILETYPE.RMA3_FILE;
-				} else if (rmafile.toLowerCase().endsWith(".rma6")) {
-					fileType = FILETYPE.RMA6_FILE;
-				} else if (rmafile.toLowerCase().endsWith(".rma")) {
-					int version = RMA2File.getRMAVersion(new File(rmafile));
-					if (version == 2)
-						fileType = FILETYPE.RMA2_FILE;
-					else if (version == 3)
-						fileType = FILETYPE.RMA3_FILE;
-					else if (version == 6)
-						fileType = FILETYPE.RMA6_FILE;
-				} else if (rmafile.toLowerCase().endsWith(".daa")) {
-					fileType = FILETYPE.DAA_FILE;
-					if(!DAAParser.isMeganizedDAAFile(rmafile, true)){
-						logger.warn("File " + rmafile + " is a daa file that has not been meganized. Will ignore it.");
-						fileType = null;
+		}else if(changedPaths != null){
+			changedIds = new HashSet<Integer>();
+			for(String path : changedPaths){
+				changedIds.add(Math.abs(path.hashCode()));
+			}
+			for(DatasetCatalog.Entry entry : previous.getEntries()){
+				if(catalog.get(entry.getId()) == null){
+					changedIds.add(entry.getId());
+				}
+			}
+		}
+		if(changedIds == null){
+			connectorCache.clear();
+		}else{
+			for(int fileId : changedIds){
+				connectorCache.invalidate(fileId);
+			}
+		}
+		for(ChangeListener listener : listeners){
+			try{
+				listener.filesChanged(changedIds);
+			}catch(RuntimeException e){
+				logger.warn("Problems notifying about changed files.", e);
+			}
+		}
+	}
+
+	/**
+	 * Get notified after the files have been updated, e.g. to drop cached data of changed files
+	 * 
+	 * @param listener
+	 */
+	public void addChangeListener(ChangeListener listener){
+		listeners.add(listener);
+	}
+
+	/**
+	 * The current snapshot of all files
+	 * 
+	 * @return
+	 */
+	public DatasetCatalog getCatalog(){
+		return catalog;
+	}
+
+	/**
+	 * Start watching the root directory if this is switched on with rma.watch. If the watcher cannot register every directory
+	 * the files are only updated by rescans, see rma.rescanInterval, and admin/updateDatasets, which also tries to watch again.
+	 * 
+	 * @param rootDirectory
+	 */
+	private void startWatcher(final File rootDirectory){
+		if(watcher != null && watcher.getRootDirectory().equals(rootDirectory)){
+			return;
+		}
+		if(watcher != null){
+			closeWatcher(watcher);
+			watcher = null;
+		}
+		if(isShutdown || !ServerProperties.getBoolean("rma.watch", false)){
+			return;
+		}
+		try {
+			watcher = new DatasetWatcher(rootDirectory, ServerProperties.getLong("rma.watchDebounce", 2000), new DatasetWatcher.ChangeListener() {
+				@Override
+				public void filesChanged(Set<String> paths) {
+					updateFiles(paths);
+				}
+
+				@Override
+				public void eventsLost() {
+					try {
+						updateFilesystem();
+					} catch (IOException e) {
+						logger.error("Exception updating filesystem: ", e);
 					}
 				}
-				if (fileType == null) {
-					//logger.warn("File " + rmafile + " is not a rma/meganized daa file.");
-				} else {
-					id2FileType.put(id, fileType);
-					id2FileName.put(id, rmafile);
+
+				@Override
+				public void watchFailed() {
+					stopWatcher(rootDirectory);
 				}
+			});
+			watcher.start();
+			if(isShutdown){
+				// shutdown() ran while the watcher was created
+				closeWatcher(watcher);
+			}
+		} catch (IOException e) {
+			logger.warn("Cannot watch " + rootDirectory + " for changes. Set rma.rescanInterval or use admin/updateDatasets to pick up new files.", e);
+		}
+	}
+
+	/**
+	 * Drop the watcher after it failed to register a new directory
+	 * 
+	 * @param rootDirectory the directory of the failed watcher, a watcher of another directory is kept
+	 */
+	private void stopWatcher(File rootDirectory){
+		synchronized (updateLock) {
+			if(watcher != null && watcher.getRootDirectory().equals(rootDirectory)){
+				closeWatcher(watcher);
+				watcher = null;
 			}
-			folders.remove(0);
 		}
-		logger.info(String.format("Done updating filesystem. Found %s RMA/DAA files", id2FileName.size()));
+		logger.warn("No longer watching for changes. Set rma.rescanInterval or use admin/updateDatasets to pick up new files.");
+	}
+
+	private static void closeWatcher(DatasetWatcher watcher){
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			logger.warn("Problems closing the filesystem watcher.", e);
+		}
+	}
+
+	/**Stop watching the root directory and drop the connectors. Called when the server stops.
+	 * Does not wait for a scan that is running, its result is not watched anymore.
+	 * 
+	 */
+	public void shutdown(){
+		isShutdown = true;
+		if(rescanScheduler != null){
+			rescanScheduler.shutdownNow();
+		}
+		DatasetWatcher watcher = this.watcher;
+		if(watcher != null){
+			closeWatcher(watcher);
+		}
+		connectorCache.clear();
 	}
 
 
@@ -172,9 +398,9 @@ public class RMAFileHandler {
 	 * @throws IOException
 	 */
 	public String getRMAFileAbsolutePath(int fileId) throws IOException{
-		String rmafile = id2FileName.get(fileId);
-		Assert.notNull(rmafile);
-		return rmafile;
+		DatasetCatalog.Entry entry = catalog.get(fileId);
+		Assert.notNull(entry);
+		return entry.getPath();
 	}
 
 	/**
@@ -186,15 +412,13 @@ public class RMAFileHandler {
 	 */
 	public int resolveFileIdentifierToId(String file) throws FileNotFoundException{
 		int fileId = -1;
-		try{
+		if(isNumeric(file)){
 			fileId = Integer.parseInt(file);
-		}catch(NumberFormatException e){
-			// well then its a string and the path has to be tested
-			for(Entry<Integer, String>  entry: id2FileName.entrySet()){
-				if(entry.getValue().endsWith(file)){
-					fileId = entry.getKey();
-					break;
-				}
+		}else{
+			// well then its a string and the path has to be looked up
+			DatasetCatalog.Entry entry = catalog.findByPath(file);
+			if(entry != null){
+				fileId = entry.getId();
 			}
 		}
 		if(fileId == -1){
@@ -203,6 +427,26 @@ public class RMAFileHandler {
 		return fileId;
 	}
 
+	/**
+	 * check if the identifier is a numeric id that fits into an int
+	 * 
+	 * @param file
+	 * @return
+	 */
+	private static boolean isNumeric(String file){
+		if(file.length() == 0 || file.length() > 11){
+			return false;
+		}
+		for(int i = 0; i < file.length(); i++){
+			char c = file.charAt(i);
+			if(!(c >= '0' && c <= '9') && !(i == 0 && (c == '-' || c == '+') && file.length() > 1)){
+				return false;
+			}
+		}
+		// at most 11 characters of digits and a sign can not overflow a long
+		long value = Long.parseLong(file);
+		return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+	}
 
 	/**Resolve the identifier to the file path
 	 * 
@@ -214,14 +458,30 @@ public class RMAFileHandler {
 		int fileId = -1;
 		try{
 			fileId = Integer.parseInt(file);
-			return id2FileName.get(fileId);
+			DatasetCatalog.Entry entry = catalog.get(fileId);
+			return entry == null ? null : entry.getPath();
 		}catch(NumberFormatException e){
 			return file;
 		}
 	}
 
 	/**
-	 * get the connector
+	 * get the type of the file
+	 * 
+	 * @param file
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public FILETYPE getFileType(String file) throws FileNotFoundException{
+		DatasetCatalog.Entry entry = catalog.get(resolveFileIdentifierToId(file));
+		if(entry == null){
+			throw new FileNotFoundException("File with identifier " + file + " not found in current database.");
+		}
+		return entry.getType();
+	}
+
+	/**
+	 * get the connector. Connectors are reused between calls, see {@link ConnectorCache}
 	 * 
 	 * @param file
 	 * @return connector
@@ -229,9 +489,43 @@ public class RMAFileHandler {
 	 */
 	public IConnector getIConnector(String file) throws IOException{
 		final int fileId = resolveFileIdentifierToId(file);
-		final String rmafile = getRMAFileAbsolutePath(fileId);
-		final FILETYPE type =  id2FileType.get(fileId);
-		Assert.notNull(type);
+		return connectorCache.getConnector(fileId, new Callable<IConnector>() {
+			@Override
+			public IConnector call() throws IOException {
+				return createIConnector(fileId);
+			}
+		});
+	}
+
+	/**
+	 * get the classification names of the file. They are read from the file once, see {@link ConnectorCache}
+	 * 
+	 * @param file
+	 * @return the names, not to be changed
+	 * @throws IOException
+	 */
+	public String[] getClassificationNames(String file) throws IOException{
+		final int fileId = resolveFileIdentifierToId(file);
+		return connectorCache.getClassificationNames(fileId, new Callable<IConnector>() {
+			@Override
+			public IConnector call() throws IOException {
+				return createIConnector(fileId);
+			}
+		});
+	}
+
+	/**
+	 * create a new connector for the file
+	 * 
+	 * @param fileId
+	 * @return connector
+	 * @throws IOException
+	 */
+	private IConnector createIConnector(int fileId) throws IOException{
+		final DatasetCatalog.Entry entry = catalog.get(fileId);
+		Assert.notNull(entry);
+		final String rmafile = entry.getPath();
+		final FILETYPE type = entry.getType();
 		IConnector connector = null;
 		switch(type){
 		case RMA2_FILE:
@@ -257,12 +551,21 @@ public class RMAFileHandler {
 	 * @return
 	 */
 	public RMADataset[] getAllDatasets() {
-		RMADataset[] map = new RMADataset[id2FileName.size()];
-		int pos = 0;
-		for(Entry<Integer, String> entry : id2FileName.entrySet()){
-			map[pos] = new RMADataset(entry.getKey(), entry.getValue().replace(rootDirectory.getAbsolutePath() + File.separator, ""));
-			pos++;
-		}
-		return map;
+		return catalog.createDatasets();
+	}
+
+
+	/**
+	 * Listener for files that have been added, removed or modified
+	 *
+	 */
+	public static interface ChangeListener {
+		/**
+		 * 
+		 * @param fileIds the ids of the changed files or null if any file might have changed
+		 */
+		void filesChanged(Set<Integer> fileIds);
 	}
+
+
 }
@@ -0,0 +1,89 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**Access to the tuning options in meganserver.properties. Options that are missing or cannot be parsed fall back to the given default.
+ */
+public class ServerProperties {
+
+	private static Properties properties;
+	private static final Logger logger = LoggerFactory.getLogger(ServerProperties.class);
+
+	public synchronized static Properties getInstance() {
+		if(properties == null){
+			properties = new Properties();
+			try{
+				InputStream input = ServerProperties.class.getClassLoader().getResourceAsStream("meganserver.properties");
+				if(input == null){
+					input = ServerProperties.class.getClassLoader().getResourceAsStream("/meganserver.properties");
+				}
+				if(input != null){
+					properties.load(input);
+					input.close();
+				}
+			}catch(IOException e){
+				logger.error("error loading meganserver.properties", e);
+			}
+		}
+		return properties;
+	}
+
+	public static String getString(String key, String defaultValue){
+		String value = getInstance().getProperty(key);
+		if(value == null || value.trim().equals("")){
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+	public static int getInt(String key, int defaultValue){
+		return (int) getLong(key, defaultValue);
+	}
+
+	public static long getLong(String key, long defaultValue){
+		String value = getString(key, null);
+		if(value == null){
+			return defaultValue;
+		}
+		try{
+			return Long.parseLong(value);
+		}catch(NumberFormatException e){
+			logger.warn("Property " + key + " is not a number: " + value + ". Using default " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public static boolean getBoolean(String key, boolean defaultValue){
+		String value = getString(key, null);
+		if(value == null){
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value);
+	}
+
+
+}
@@ -0,0 +1,162 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.batch;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rusch.megan6server.ServerProperties;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**Runs a list of operations on a list of files, the files in parallel and the operations of one file one after the other.
+ * 
+ * All batches share one bounded pool (batch.threads). When its queue is full the request thread runs the file itself,
+ * so a large batch slows down its own client instead of piling up work. A failing operation does not fail the batch,
+ * its message is reported under "errors" of the file. 
+ */
+public class BatchExecutor {
+
+	public static final String ERRORS = "errors";
+	private static final Logger logger = LoggerFactory.getLogger(BatchExecutor.class);
+	private final ExecutorService executor;
+	private final int maximumFiles;
+	private final long timeout;
+
+
+	public BatchExecutor(){
+		this(ServerProperties.getInt("batch.threads", 8), ServerProperties.getInt("batch.maxFiles", 1000), ServerProperties.getLong("batch.timeout", 300));
+	}
+
+	/**
+	 * 
+	 * @param threads
+	 * @param maximumFiles largest number of files in one batch
+	 * @param timeout seconds after which operations that have not finished are reported as errors
+	 */
+	public BatchExecutor(int threads, int maximumFiles, long timeout){
+		int poolSize = Math.max(1, threads);
+		this.maximumFiles = maximumFiles;
+		this.timeout = timeout;
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1000),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Batch-%d").build(), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**Stop the pool. Batches that are running report their remaining files as errors.
+	 * 
+	 */
+	public void shutdown(){
+		executor.shutdownNow();
+	}
+
+	/**An operation on one file
+	 *
+	 */
+	public static interface Operation {
+		/**
+		 * 
+		 * @param fileId
+		 * @param operation name of the operation
+		 * @return the result, must be serializable to JSON
+		 * @throws Exception
+		 */
+		Object run(String fileId, String operation) throws Exception;
+	}
+
+	/**Run the operations on all files
+	 * 
+	 * @param fileIds
+	 * @param operations
+	 * @param operation
+	 * @return for every file in the order of the request: the result of every operation by name, and the messages of failed operations under "errors"
+	 */
+	public Map<String, Map<String, Object>> execute(String[] fileIds, final String[] operations, final Operation operation){
+		if(fileIds.length > maximumFiles){
+			throw new IllegalArgumentException("A batch may not contain more than " + maximumFiles + " files.");
+		}
+		List<Future<Map<String, Object>>> futures = new ArrayList<Future<Map<String, Object>>>(fileIds.length);
+		for(final String fileId : fileIds){
+			futures.add(executor.submit(new Callable<Map<String, Object>>() {
+				@Override
+				public Map<String, Object> call() {
+					return runOperations(fileId, operations, operation);
+				}
+			}));
+		}
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+		Map<String, Map<String, Object>> fileId2Results = new LinkedHashMap<String, Map<String, Object>>();
+		for(int i = 0; i < fileIds.length; i++){
+			Future<Map<String, Object>> future = futures.get(i);
+			try {
+				fileId2Results.put(fileIds[i], future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				fileId2Results.put(fileIds[i], createErrors("Timed out after " + timeout + " seconds"));
+			} catch (ExecutionException e) {
+				fileId2Results.put(fileIds[i], createErrors(String.valueOf(e.getCause())));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.cancel(true);
+				fileId2Results.put(fileIds[i], createErrors("Interrupted"));
+			}
+		}
+		return fileId2Results;
+	}
+
+	private static Map<String, Object> runOperations(String fileId, String[] operations, Operation operation){
+		Map<String, Object> results = new LinkedHashMap<String, Object>();
+		Map<String, String> errors = new LinkedHashMap<String, String>();
+		for(String name : operations){
+			try{
+				results.put(name, operation.run(fileId, name));
+			}catch(Exception e){
+				logger.debug("Batch operation " + name + " failed for file " + fileId, e);
+				errors.put(name, e.getMessage() == null ? e.toString() : e.getMessage());
+			}
+		}
+		if(!errors.isEmpty()){
+			results.put(ERRORS, errors);
+		}
+		return results;
+	}
+
+	private static Map<String, Object> createErrors(String message){
+		Map<String, Object> results = new LinkedHashMap<String, Object>();
+		Map<String, String> errors = new LinkedHashMap<String, String>();
+		errors.put("*", message);
+		results.put(ERRORS, errors);
+		return results;
+	}
+
+
+}
@@ -0,0 +1,68 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.batch;
+
+
+/**The body of a batch request: the files, the operations to run on each of them and the classifications the classification operations refer to.
+ * 
+ * A batch can name up to batch.maxFiles files, which does not fit into a query string, so it is posted as JSON.
+ */
+public class BatchRequest {
+	private String[] fileIds;
+	private String[] operations;
+	private String[] classifications;
+
+	public BatchRequest(){
+	}
+
+	public BatchRequest(String[] fileIds, String[] operations, String[] classifications){
+		this.fileIds = fileIds;
+		this.operations = operations;
+		this.classifications = classifications;
+	}
+
+	public String[] getFileIds() {
+		return fileIds;
+	}
+
+	public void setFileIds(String[] fileIds) {
+		this.fileIds = fileIds;
+	}
+
+	public String[] getOperations() {
+		return operations;
+	}
+
+	public void setOperations(String[] operations) {
+		this.operations = operations;
+	}
+
+	/**
+	 * 
+	 * @return the classifications for getClassificationBlock and getClassificationSize, may be null if neither is requested
+	 */
+	public String[] getClassifications() {
+		return classifications;
+	}
+
+	public void setClassifications(String[] classifications) {
+		this.classifications = classifications;
+	}
+
+}
@@ -22,15 +22,24 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import megan.data.IConnector;
 import rusch.megan6server.RMAFileHandler;
+import rusch.megan6server.ServerProperties;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 
 
 /**A caching class so that this simple command does not slow down important I/O
+ * 
+ * Blocks are kept per {@link FileVersion}, so a file that is replaced in place is read again. The cache is bounded by
+ * the size of the blocks in cache.auxiliaryBytes, a few large blocks with sample attributes or charts can not push out memory.
+ * Blocks that are not cached are looked up in the {@link MetadataIndex} before the file is opened.
  * 
  * @author Hans-Joachim Ruscheweyh
  * 2:47:26 PM - Dec 23, 2014
@@ -38,37 +47,107 @@ import com.google.common.cache.CacheBuilder;
  */
 public class AuxiliaryCache {
 	
-	private final Cache<Integer,Map<String, String>> auxCache;
+	private final Cache<FileVersion,Map<String, String>> auxCache;
+	private final AtomicLong generation = new AtomicLong();
+	private final MetadataIndex metadataIndex;
 
 
 	public AuxiliaryCache(){
-		auxCache = CacheBuilder.newBuilder().maximumSize(10000).build();
+		this(null);
+	}
+
+	/**
+	 * 
+	 * @param metadataIndex where blocks are kept across restarts or null
+	 */
+	public AuxiliaryCache(MetadataIndex metadataIndex){
+		this.metadataIndex = metadataIndex;
+		auxCache = CacheBuilder.newBuilder()
+				.maximumWeight(ServerProperties.getLong("cache.auxiliaryBytes", 64 * 1024 * 1024))
+				.weigher(new Weigher<FileVersion, Map<String, String>>() {
+					@Override
+					public int weigh(FileVersion version, Map<String, String> aux) {
+						return weight(aux);
+					}
+				})
+				.build();
 	}
 	/**Get Auxiliary Block. If possible, use the cache. Otherwise load from file but store it to the cache for later reference.
+	 * Concurrent requests for the same file wait for a single load.
 	 * 
 	 * @param rma3FileHandler
 	 * @param fileId
 	 * @return
 	 * @throws IOException
 	 */
-	public Map<String, String> getAuxBlock(RMAFileHandler rma3FileHandler, String fileId) throws IOException{
-		Map<String, String> aux = auxCache.getIfPresent(rma3FileHandler.resolveFileIdentifierToId(fileId));
-		if(aux == null){
-			IConnector connector = rma3FileHandler.getIConnector(fileId);
-			Map<String, byte[]> map = connector.getAuxiliaryData();
-			Map<String, String> map2 = new HashMap<String, String>();
-			for(Entry<String, byte[]> entry : map.entrySet()){
-				map2.put(entry.getKey(), new String(entry.getValue()));
+	public Map<String, String> getAuxBlock(final RMAFileHandler rma3FileHandler, final String fileId) throws IOException{
+		final FileVersion version = FileVersion.of(rma3FileHandler, fileId);
+		try {
+			return auxCache.get(version, new Callable<Map<String, String>>() {
+				@Override
+				public Map<String, String> call() throws IOException {
+					if(metadataIndex != null){
+						Map<String, String> aux = metadataIndex.getAuxiliary(version);
+						if(aux != null){
+							return aux;
+						}
+					}
+					IConnector connector = rma3FileHandler.getIConnector(String.valueOf(version.getFileId()));
+					Map<String, byte[]> map = connector.getAuxiliaryData();
+					Map<String, String> map2 = new HashMap<String, String>();
+					for(Entry<String, byte[]> entry : map.entrySet()){
+						map2.put(entry.getKey(), new String(entry.getValue()));
+					}
+					if(metadataIndex != null){
+						metadataIndex.putAuxiliary(version, map2);
+					}
+					return map2;
+				}
+			});
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not load auxiliary data of file " + fileId, e.getCause());
+		}
+	}
+
+	/**Estimated size of the block in bytes: two bytes per character plus the overhead of the map entries
+	 * 
+	 * @param aux
+	 * @return
+	 */
+	private static int weight(Map<String, String> aux){
+		long weight = 64;
+		for(Entry<String, String> entry : aux.entrySet()){
+			weight += 96 + 2L * entry.getKey().length() + 2L * entry.getValue().length();
+		}
+		return (int) Math.min(Integer.MAX_VALUE, weight);
+	}
+
+	/**Drop the block of a file
+	 * 
+	 * @param fileId
+	 */
+	public void invalidate(int fileId) {
+		for(FileVersion version : auxCache.asMap().keySet()){
+			if(version.getFileId() == fileId){
+				auxCache.invalidate(version);
 			}
-			auxCache.put(rma3FileHandler.resolveFileIdentifierToId(fileId), map2);
-			return map2;
-		}else{
-			return aux;
 		}
+		generation.incrementAndGet();
 	}
 
 	public synchronized void clear() {
 		auxCache.invalidateAll();
+		generation.incrementAndGet();
+	}
+	/**The generation increases whenever cached blocks are dropped, so that anything derived from them can be rebuilt
+	 * 
+	 * @return
+	 */
+	public long getGeneration() {
+		return generation.get();
 	}
 
 
@@ -0,0 +1,181 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import rusch.megan6server.serialization.BinaryJsonWriter;
+import rusch.megan6server.serialization.Compression;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+
+
+/**A response that has already been serialized to JSON. The ETag is derived from the content,
+ * so clients that send it back with If-None-Match get a 304 without a body as long as nothing has changed.
+ * 
+ * The gzip encoded body is compressed once, when the first client accepting gzip asks for it, and kept with the payload.
+ */
+public class CachedPayload {
+
+	public static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+	private final byte[] json;
+	private final String contentType;
+	private final String etag;
+	private final String gzipEtag;
+	private volatile byte[] gzip;
+
+
+	public CachedPayload(byte[] json){
+		this(json, CONTENT_TYPE);
+	}
+
+	/**
+	 * 
+	 * @param body
+	 * @param contentType
+	 */
+	public CachedPayload(byte[] body, String contentType){
+		this.json = body;
+		this.contentType = contentType;
+		String hash = Hashing.murmur3_128().hashBytes(body).toString();
+		this.etag = "\"" + hash + "\"";
+		this.gzipEtag = "\"" + hash + "-gzip\"";
+	}
+
+	/**Serialize the object the same way the JSON message converter does
+	 * 
+	 * @param mapper
+	 * @param value
+	 * @return
+	 * @throws IOException
+	 */
+	public static CachedPayload serialize(ObjectMapper mapper, Object value) throws IOException{
+		return new CachedPayload(mapper.writeValueAsBytes(value));
+	}
+
+	/**Serialize the object the same way the binary message converter does
+	 * 
+	 * @param writer
+	 * @param value
+	 * @return
+	 * @throws IOException
+	 */
+	public static CachedPayload serializeBinary(BinaryJsonWriter writer, Object value) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		writer.write(value, bytes);
+		return new CachedPayload(bytes.toByteArray(), BinaryJsonWriter.MEDIA_TYPE);
+	}
+
+	public byte[] getJson() {
+		return json;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * 
+	 * @return the gzip encoded body, compressed on first use
+	 */
+	public byte[] getGzip(){
+		byte[] gzip = this.gzip;
+		if(gzip == null){
+			gzip = Compression.gzip(json);
+			this.gzip = gzip;
+		}
+		return gzip;
+	}
+
+	/**
+	 * 
+	 * @return size of the cached data in bytes, counting the gzip encoded body as if it were already compressed
+	 */
+	public int getWeight(){
+		byte[] gzip = this.gzip;
+		return json.length + (gzip == null ? json.length / 4 : gzip.length);
+	}
+
+	/**Write the payload or a 304 if the client already has it
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void write(HttpServletRequest request, HttpServletResponse response) throws IOException{
+		write(request, response, false);
+	}
+
+	/**Write the payload or a 304 if the client already has it
+	 * 
+	 * @param request
+	 * @param response
+	 * @param negotiatesContentType true if the payload was chosen by the Accept header of the request
+	 * @throws IOException
+	 */
+	public void write(HttpServletRequest request, HttpServletResponse response, boolean negotiatesContentType) throws IOException{
+		boolean compress = Compression.isWorthCompressing(json.length) && Compression.acceptsGzip(request);
+		Compression.setVaryHeaders(response, negotiatesContentType);
+		response.setHeader("ETag", compress ? gzipEtag : etag);
+		if(matches(request.getHeader("If-None-Match"))){
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setContentType(contentType);
+		byte[] body = json;
+		if(compress){
+			body = getGzip();
+			Compression.setGzipHeaders(response);
+		}
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+	}
+
+	/**Check the If-None-Match header, which may contain a list of (weak) ETags or *
+	 * 
+	 * @param ifNoneMatch
+	 * @return
+	 */
+	private boolean matches(String ifNoneMatch){
+		if(ifNoneMatch == null){
+			return false;
+		}
+		for(String tag : ifNoneMatch.split(",")){
+			tag = tag.trim();
+			if(tag.startsWith("W/")){
+				tag = tag.substring(2);
+			}
+			if(tag.equals("*") || tag.equals(etag) || tag.equals(gzipEtag)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+}
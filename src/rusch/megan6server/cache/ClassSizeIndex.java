@@ -0,0 +1,183 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import megan.data.IClassificationBlock;
+import rusch.megan6server.RMAFileHandler;
+import rusch.megan6server.ServerProperties;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+
+/**The number of reads of every class of a classification, kept as two int arrays so that class sizes can be served
+ * from memory long after the much larger classification block has been dropped.
+ * 
+ * The sizes are built from the {@link ClassificationBlockCache} the first time a file and classification is asked for,
+ * kept per {@link FileVersion} and bounded by cache.classSizeBytes.
+ */
+public class ClassSizeIndex {
+
+	private final Cache<Key, ClassSizes> key2Sizes;
+	private final ClassificationBlockCache classificationCache;
+
+
+	public ClassSizeIndex(ClassificationBlockCache classificationCache){
+		this.classificationCache = classificationCache;
+		key2Sizes = CacheBuilder.newBuilder()
+				.maximumWeight(ServerProperties.getLong("cache.classSizeBytes", 64 * 1024 * 1024))
+				.weigher(new Weigher<Key, ClassSizes>() {
+					@Override
+					public int weigh(Key key, ClassSizes sizes) {
+						return 64 + 8 * sizes.classIds.length;
+					}
+				})
+				.build();
+	}
+
+	/**
+	 * 
+	 * @param rma3FileHandler
+	 * @param fileId id or path of the file
+	 * @param classification
+	 * @return the class sizes of the classification of the file
+	 * @throws IOException
+	 */
+	public ClassSizes getClassSizes(final RMAFileHandler rma3FileHandler, final String fileId, final String classification) throws IOException{
+		final FileVersion version = FileVersion.of(rma3FileHandler, fileId);
+		try {
+			return key2Sizes.get(new Key(version, classification), new Callable<ClassSizes>() {
+				@Override
+				public ClassSizes call() throws IOException {
+					return new ClassSizes(classificationCache.getBlock(rma3FileHandler, String.valueOf(version.getFileId()), classification).getClassificationBlock());
+				}
+			});
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not load classification " + classification + " of file " + fileId, e.getCause());
+		}
+	}
+
+	/**Drop the sizes of a file
+	 * 
+	 * @param fileId
+	 */
+	public void invalidate(int fileId) {
+		for(Key key : key2Sizes.asMap().keySet()){
+			if(key.version.getFileId() == fileId){
+				key2Sizes.invalidate(key);
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		key2Sizes.invalidateAll();
+	}
+
+
+	/**Class ids in ascending order with the number of reads of each class
+	 *
+	 */
+	public static class ClassSizes {
+		private final int[] classIds;
+		private final int[] sizes;
+
+		private ClassSizes(IClassificationBlock block){
+			Set<Integer> keySet = block.getKeySet();
+			int[] classIds = new int[keySet.size()];
+			int i = 0;
+			for(Integer classId : keySet){
+				classIds[i++] = classId;
+			}
+			Arrays.sort(classIds);
+			int[] sizes = new int[classIds.length];
+			for(i = 0; i < classIds.length; i++){
+				sizes[i] = block.getSum(classIds[i]);
+			}
+			this.classIds = classIds;
+			this.sizes = sizes;
+		}
+
+		/**
+		 * 
+		 * @param classId
+		 * @return number of reads of the class, 0 for classes without reads
+		 */
+		public int getSize(int classId){
+			int index = Arrays.binarySearch(classIds, classId);
+			return index < 0 ? 0 : sizes[index];
+		}
+
+		/**
+		 * 
+		 * @param classIds
+		 * @return the number of reads of every class
+		 */
+		public int[] getSizes(int[] classIds){
+			int[] sizes = new int[classIds.length];
+			for(int i = 0; i < classIds.length; i++){
+				sizes[i] = getSize(classIds[i]);
+			}
+			return sizes;
+		}
+
+		/**
+		 * 
+		 * @return number of classes with reads
+		 */
+		public int getNumberOfClasses(){
+			return classIds.length;
+		}
+	}
+
+	private static final class Key {
+		private final FileVersion version;
+		private final String classification;
+
+		private Key(FileVersion version, String classification){
+			this.version = version;
+			this.classification = classification;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * version.hashCode() + classification.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)){
+				return false;
+			}
+			Key other = (Key) obj;
+			return version.equals(other.version) && classification.equals(other.classification);
+		}
+	}
+
+
+}
@@ -0,0 +1,158 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.cache;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import megan.data.IClassificationBlock;
+import megan.data.IConnector;
+import rusch.megan5client.ClassificationBlockServer;
+import rusch.megan6server.RMAFileHandler;
+import rusch.megan6server.ServerProperties;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+
+/**Classification blocks are what every client loads first and they only change when the file is rewritten.
+ * 
+ * The blocks are kept per {@link FileVersion} and classification, bounded by the estimated memory in cache.classificationBytes.
+ * Concurrent requests for the same block wait for a single load. {@link RMAFileHandler} drops the blocks of files that changed.
+ */
+public class ClassificationBlockCache {
+
+	private final Cache<Key, Block> key2Block;
+
+
+	public ClassificationBlockCache(){
+		key2Block = CacheBuilder.newBuilder()
+				.maximumWeight(ServerProperties.getLong("cache.classificationBytes", 256 * 1024 * 1024))
+				.weigher(new Weigher<Key, Block>() {
+					@Override
+					public int weigh(Key key, Block block) {
+						return block.getWeight();
+					}
+				})
+				.build();
+	}
+
+	/**Get the classification block of a file. If it is not cached it is loaded from the file.
+	 * 
+	 * @param rma3FileHandler
+	 * @param fileId id or path of the file
+	 * @param classification
+	 * @return
+	 * @throws IOException
+	 */
+	public Block getBlock(final RMAFileHandler rma3FileHandler, final String fileId, final String classification) throws IOException{
+		final FileVersion version = FileVersion.of(rma3FileHandler, fileId);
+		try {
+			return key2Block.get(new Key(version, classification), new Callable<Block>() {
+				@Override
+				public Block call() throws IOException {
+					IConnector connector = rma3FileHandler.getIConnector(String.valueOf(version.getFileId()));
+					return new Block(connector.getClassificationBlock(classification));
+				}
+			});
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not load classification " + classification + " of file " + fileId, e.getCause());
+		}
+	}
+
+	/**Drop all blocks of a file
+	 * 
+	 * @param fileId
+	 */
+	public void invalidate(int fileId) {
+		for(Key key : key2Block.asMap().keySet()){
+			if(key.version.getFileId() == fileId){
+				key2Block.invalidate(key);
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		key2Block.invalidateAll();
+	}
+
+
+	/**A classification block together with its representation for the clients
+	 * 
+	 */
+	public static class Block {
+		private final IClassificationBlock classificationBlock;
+		private final ClassificationBlockServer server;
+		private final int weight;
+
+		private Block(IClassificationBlock classificationBlock){
+			this.classificationBlock = classificationBlock;
+			this.server = new ClassificationBlockServer(classificationBlock);
+			// the class ids with their sums, once in the block and once in the server representation
+			this.weight = 256 + 2 * 64 * classificationBlock.getKeySet().size();
+		}
+
+		public IClassificationBlock getClassificationBlock() {
+			return classificationBlock;
+		}
+
+		public ClassificationBlockServer getServer() {
+			return server;
+		}
+
+		/**
+		 * 
+		 * @return estimated size in bytes
+		 */
+		public int getWeight() {
+			return weight;
+		}
+	}
+
+	private static final class Key {
+		private final FileVersion version;
+		private final String classification;
+
+		private Key(FileVersion version, String classification){
+			this.version = version;
+			this.classification = classification;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * version.hashCode() + classification.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)){
+				return false;
+			}
+			Key other = (Key) obj;
+			return version.equals(other.version) && classification.equals(other.classification);
+		}
+	}
+
+
+}
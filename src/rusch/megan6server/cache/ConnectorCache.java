@@ -0,0 +1,126 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.cache;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import megan.data.IConnector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rusch.megan6server.ServerProperties;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+
+/**Keeps one {@link IConnector} per file so that what a connector reads when it is created is read once per file and not once per request.
+ * For DAA files this is the header that the connector loads in its constructor.
+ * 
+ * What is not reused are the file handles: a connector opens a reader for every call and closes it again, which is also why a single
+ * instance per file can be shared between request threads. An RMA6 connector only keeps the file name and opens and parses the header
+ * of the file on every call. The part of the header every read request needs, the classification names, is therefore kept here as well,
+ * next to the connector and dropped with it. The other results are kept by {@link ClassificationBlockCache}, {@link AuxiliaryCache},
+ * {@link MetadataIndex} and {@link ReadBlockGetterPool}.
+ * The cache is bounded by connector.cache.maximumSize and drops connectors that have not been used for connector.cache.expireAfterAccess seconds.
+ * The connectors are created from a file name and read the file with their own readers, so the server cannot hand them a memory mapping of the file.
+ */
+public class ConnectorCache {
+
+	private final Cache<Integer, IConnector> fileId2Connector;
+	private final Cache<Integer, String[]> fileId2ClassificationNames;
+	private static final Logger logger = LoggerFactory.getLogger(ConnectorCache.class);
+
+
+	public ConnectorCache(){
+		fileId2Connector = CacheBuilder.newBuilder()
+				.maximumSize(ServerProperties.getLong("connector.cache.maximumSize", 1000))
+				.expireAfterAccess(ServerProperties.getLong("connector.cache.expireAfterAccess", 600), TimeUnit.SECONDS)
+				.removalListener(new RemovalListener<Integer, IConnector>() {
+					@Override
+					public void onRemoval(RemovalNotification<Integer, IConnector> notification) {
+						logger.debug("Dropping connector for file " + notification.getKey() + ": " + notification.getCause());
+					}
+				})
+				.build();
+		fileId2ClassificationNames = CacheBuilder.newBuilder()
+				.maximumSize(ServerProperties.getLong("connector.cache.maximumSize", 1000))
+				.expireAfterAccess(ServerProperties.getLong("connector.cache.expireAfterAccess", 600), TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**Get the connector of a file. If there is none in the cache the loader creates it. Concurrent requests for the same file wait for a single load.
+	 * 
+	 * @param fileId
+	 * @param loader
+	 * @return connector
+	 * @throws IOException
+	 */
+	public IConnector getConnector(int fileId, Callable<IConnector> loader) throws IOException{
+		try {
+			return fileId2Connector.get(fileId, loader);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not open connector for file " + fileId, e.getCause());
+		}
+	}
+
+	/**The classification names from the header of a file. Read with the connector of the file the first time.
+	 * 
+	 * @param fileId
+	 * @param loader creates the connector if there is none in the cache
+	 * @return the names, shared between callers and not to be changed
+	 * @throws IOException
+	 */
+	public String[] getClassificationNames(final int fileId, final Callable<IConnector> loader) throws IOException{
+		try {
+			return fileId2ClassificationNames.get(fileId, new Callable<String[]>() {
+				@Override
+				public String[] call() throws IOException {
+					return getConnector(fileId, loader).getAllClassificationNames();
+				}
+			});
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not read the classification names of file " + fileId, e.getCause());
+		}
+	}
+
+	public void invalidate(int fileId) {
+		fileId2Connector.invalidate(fileId);
+		fileId2ClassificationNames.invalidate(fileId);
+	}
+
+	public synchronized void clear() {
+		fileId2Connector.invalidateAll();
+		fileId2ClassificationNames.invalidateAll();
+	}
+
+
+}
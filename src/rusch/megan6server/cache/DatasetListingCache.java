@@ -0,0 +1,187 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.cache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import rusch.megan5client.Metadata;
+import rusch.megan5client.RMADataset;
+import rusch.megan5client.RMADatasetWithAuxiliary;
+import rusch.megan6server.RMAFileHandler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+
+/**Keeps the dataset listings and their JSON so that listDatasets does not have to go through all auxiliary blocks for every call.
+ * 
+ * A listing is built on first use and kept until the dataset catalog or the {@link AuxiliaryCache} changes. Listings are keyed by both versions,
+ * so a changed catalog simply asks for a new key. Building a listing does not block readers of other listings, and concurrent requests
+ * for a listing that is being built wait for that single build.
+ */
+public class DatasetListingCache {
+
+	public static enum VARIANT {DATASETS, DATASETS_WITH_METADATA, DATASETS_WITH_AUXILIARY};
+
+	private final RMAFileHandler rma3FileHandler;
+	private final AuxiliaryCache auxiliaryCache;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Cache<Key, Listing> key2Listing = CacheBuilder.newBuilder().maximumSize(2 * VARIANT.values().length).build();
+
+
+	public DatasetListingCache(RMAFileHandler rma3FileHandler, AuxiliaryCache auxiliaryCache){
+		this.rma3FileHandler = rma3FileHandler;
+		this.auxiliaryCache = auxiliaryCache;
+	}
+
+	/**Get the datasets of a listing. The datasets are copies, the caller may modify them.
+	 * 
+	 * @param includeMetadata
+	 * @return
+	 * @throws IOException
+	 */
+	public RMADataset[] getDatasets(boolean includeMetadata) throws IOException{
+		RMADataset[] datasets = getListing(includeMetadata ? VARIANT.DATASETS_WITH_METADATA : VARIANT.DATASETS).datasets;
+		RMADataset[] copies = new RMADataset[datasets.length];
+		for(int i = 0; i < datasets.length; i++){
+			copies[i] = new RMADataset(datasets[i].getDatasetUid(), datasets[i].getDatasetName());
+			copies[i].setDescription(datasets[i].getDescription());
+			if(datasets[i].getMetadata() != null){
+				copies[i].setMetadata(new HashMap<String, String>(datasets[i].getMetadata()));
+			}
+		}
+		return copies;
+	}
+
+	/**Get the serialized listing
+	 * 
+	 * @param variant
+	 * @return
+	 * @throws IOException
+	 */
+	public CachedPayload getPayload(VARIANT variant) throws IOException{
+		return getListing(variant).payload;
+	}
+
+	private Listing getListing(final VARIANT variant) throws IOException{
+		Key key = new Key(variant, rma3FileHandler.getCatalog().getVersion(), auxiliaryCache.getGeneration());
+		try {
+			return key2Listing.get(key, new Callable<Listing>() {
+				@Override
+				public Listing call() throws IOException {
+					RMADataset[] datasets;
+					if(variant == VARIANT.DATASETS_WITH_AUXILIARY){
+						datasets = buildDatasetsWithAuxiliary(getListing(VARIANT.DATASETS_WITH_METADATA).datasets);
+					}else{
+						datasets = buildDatasets(variant == VARIANT.DATASETS_WITH_METADATA);
+					}
+					return new Listing(datasets, CachedPayload.serialize(mapper, datasets));
+				}
+			});
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not list the datasets", e.getCause());
+		}
+	}
+
+	/**Build the listing with or without metadata from the auxiliary blocks
+	 * 
+	 */
+	private RMADataset[] buildDatasets(boolean includeMetadata){
+		RMADataset[] datasets = rma3FileHandler.getAllDatasets();
+		for(int i = 0; i < datasets.length; i++){
+			try {
+				Map<String, String> name2value = Metadata.transformMetadataString(auxiliaryCache.getAuxBlock(rma3FileHandler, String.valueOf(datasets[i].getDatasetUid())).get("SAMPLE_ATTRIBUTES"));
+				String description = name2value.containsKey("Description") ? name2value.get("Description") : "No description provided";
+				datasets[i].setDescription(description);
+				if(includeMetadata){
+					datasets[i].setMetadata(name2value);
+					datasets[i].getMetadata().put("@Source", datasets[i].getDatasetName());
+				}
+			}
+			catch(Exception ex){}
+		}
+		return datasets;
+	}
+
+	private RMADataset[] buildDatasetsWithAuxiliary(RMADataset[] datasets) throws IOException{
+		RMADatasetWithAuxiliary[] datasets2 = new RMADatasetWithAuxiliary[datasets.length];
+		for(int i=0; i<datasets.length; i++){
+			RMADataset dataset = datasets[i];
+			RMADatasetWithAuxiliary datasetAux = new RMADatasetWithAuxiliary();
+			Map<String, String> aux = auxiliaryCache.getAuxBlock(rma3FileHandler, String.valueOf(dataset.getDatasetUid()));
+			datasetAux.setAux(aux);
+			datasetAux.setDatasetName(dataset.getDatasetName());
+			datasetAux.setDatasetUid(dataset.getDatasetUid());
+			datasetAux.setDescription(dataset.getDescription());
+			datasetAux.setMetadata(dataset.getMetadata());
+			datasets2[i] = datasetAux;
+		}
+		return datasets2;
+	}
+
+
+	/**A listing and its JSON. Never modified after it has been built.
+	 * 
+	 */
+	private static class Listing {
+		private final RMADataset[] datasets;
+		private final CachedPayload payload;
+
+		private Listing(RMADataset[] datasets, CachedPayload payload){
+			this.datasets = datasets;
+			this.payload = payload;
+		}
+	}
+
+	private static final class Key {
+		private final VARIANT variant;
+		private final long catalogVersion;
+		private final long auxiliaryGeneration;
+
+		private Key(VARIANT variant, long catalogVersion, long auxiliaryGeneration){
+			this.variant = variant;
+			this.catalogVersion = catalogVersion;
+			this.auxiliaryGeneration = auxiliaryGeneration;
+		}
+
+		@Override
+		public int hashCode() {
+			return (variant.hashCode() * 31 + Long.hashCode(catalogVersion)) * 31 + Long.hashCode(auxiliaryGeneration);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)){
+				return false;
+			}
+			Key other = (Key) obj;
+			return variant == other.variant && catalogVersion == other.catalogVersion && auxiliaryGeneration == other.auxiliaryGeneration;
+		}
+	}
+
+
+}
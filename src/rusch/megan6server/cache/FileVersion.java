@@ -0,0 +1,95 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.cache;
+
+import java.io.FileNotFoundException;
+
+import rusch.megan6server.RMAFileHandler;
+import rusch.megan6server.filesystem.DatasetCatalog;
+
+
+/**A file as it is at one point in time. Cache keys built from it stop matching as soon as the file is rewritten.
+ */
+public final class FileVersion {
+	private final int fileId;
+	private final long size;
+	private final long lastModified;
+
+
+	public FileVersion(int fileId, long size, long lastModified){
+		this.fileId = fileId;
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	/**The current version of a file
+	 * 
+	 * @param rma3FileHandler
+	 * @param fileId id or path of the file
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public static FileVersion of(RMAFileHandler rma3FileHandler, String fileId) throws FileNotFoundException{
+		int id = rma3FileHandler.resolveFileIdentifierToId(fileId);
+		DatasetCatalog.Entry entry = rma3FileHandler.getCatalog().get(id);
+		if(entry == null){
+			throw new FileNotFoundException("File with identifier " + fileId + " not found in current database.");
+		}
+		return new FileVersion(id, entry.getSize(), entry.getLastModified());
+	}
+
+	public int getFileId() {
+		return fileId;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = fileId;
+		result = 31 * result + (int) (size ^ (size >>> 32));
+		result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj){
+			return true;
+		}
+		if(!(obj instanceof FileVersion)){
+			return false;
+		}
+		FileVersion other = (FileVersion) obj;
+		return fileId == other.fileId && size == other.size && lastModified == other.lastModified;
+	}
+
+	@Override
+	public String toString() {
+		return fileId + "/" + size + "/" + lastModified;
+	}
+
+
+}
@@ -0,0 +1,345 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rusch.megan6server.ServerProperties;
+import rusch.megan6server.filesystem.DatasetCatalog;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**Metadata of the files that is expensive to read but small: the auxiliary block, the number of reads and matches
+ * and the sizes of the classifications. It is kept in a file (index.file) so that a restarted server can answer
+ * listDatasets and friends without opening every file again.
+ * 
+ * Every record belongs to a {@link FileVersion} and is only used as long as the file has the same size and modification time.
+ * Values are added as they are read from the files and written back every index.flushInterval seconds and on shutdown.
+ * The file is memory mapped for loading.
+ */
+public class MetadataIndex {
+
+	private static final int MAGIC = 0x4D474958; // MGIX
+	private static final int FORMAT_VERSION = 1;
+	private static final Logger logger = LoggerFactory.getLogger(MetadataIndex.class);
+	private final File indexFile;
+	private final ConcurrentMap<Integer, Record> fileId2Record = new ConcurrentHashMap<Integer, Record>();
+	private volatile boolean isDirty = false;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("MetadataIndex-%d").build());
+
+
+	/**Load the index file if there is one and start writing it back regularly
+	 * 
+	 * @param indexFile
+	 */
+	public MetadataIndex(File indexFile){
+		this.indexFile = indexFile;
+		load();
+		long flushInterval = ServerProperties.getLong("index.flushInterval", 60);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try{
+					flush();
+				}catch(RuntimeException e){
+					logger.error("Problems writing the metadata index.", e);
+				}
+			}
+		}, flushInterval, flushInterval, TimeUnit.SECONDS);
+	}
+
+	/**The index location is taken from index.file. Default is a file in the temp directory that is specific to the root directory.
+	 * 
+	 * @param rootDirectory null if not known
+	 * @return
+	 */
+	public static File getIndexFile(File rootDirectory){
+		String indexFile = ServerProperties.getString("index.file", null);
+		if(indexFile != null){
+			return new File(indexFile).getAbsoluteFile();
+		}
+		String name = rootDirectory == null ? "meganserver.index" : "meganserver-" + Math.abs(rootDirectory.getAbsolutePath().hashCode()) + ".index";
+		return new File(System.getProperty("java.io.tmpdir"), name);
+	}
+
+	/**
+	 * 
+	 * @param version
+	 * @return the auxiliary block or null if it is not in the index
+	 */
+	public Map<String, String> getAuxiliary(FileVersion version){
+		Record record = getRecord(version);
+		return record == null ? null : record.auxiliary;
+	}
+
+	public void putAuxiliary(FileVersion version, Map<String, String> auxiliary){
+		Record record = getOrCreateRecord(version);
+		synchronized (record) {
+			record.auxiliary = Collections.unmodifiableMap(new HashMap<String, String>(auxiliary));
+		}
+		isDirty = true;
+	}
+
+	/**
+	 * 
+	 * @param version
+	 * @return number of reads or -1 if it is not in the index
+	 */
+	public long getNumberOfReads(FileVersion version){
+		Record record = getRecord(version);
+		return record == null ? -1 : record.numberOfReads;
+	}
+
+	public void putNumberOfReads(FileVersion version, long numberOfReads){
+		getOrCreateRecord(version).numberOfReads = numberOfReads;
+		isDirty = true;
+	}
+
+	/**
+	 * 
+	 * @param version
+	 * @return number of matches or -1 if it is not in the index
+	 */
+	public long getNumberOfMatches(FileVersion version){
+		Record record = getRecord(version);
+		return record == null ? -1 : record.numberOfMatches;
+	}
+
+	public void putNumberOfMatches(FileVersion version, long numberOfMatches){
+		getOrCreateRecord(version).numberOfMatches = numberOfMatches;
+		isDirty = true;
+	}
+
+	/**
+	 * 
+	 * @param version
+	 * @param classification
+	 * @return size of the classification or -1 if it is not in the index
+	 */
+	public int getClassificationSize(FileVersion version, String classification){
+		Record record = getRecord(version);
+		if(record == null){
+			return -1;
+		}
+		Integer size = record.classification2Size.get(classification);
+		return size == null ? -1 : size;
+	}
+
+	public void putClassificationSize(FileVersion version, String classification, int size){
+		getOrCreateRecord(version).classification2Size.put(classification, size);
+		isDirty = true;
+	}
+
+	/**Drop the records of files that are not in the catalog anymore or have changed
+	 * 
+	 * @param catalog
+	 */
+	public void retain(DatasetCatalog catalog){
+		for(Record record : fileId2Record.values()){
+			DatasetCatalog.Entry entry = catalog.get(record.version.getFileId());
+			if(entry == null || entry.getSize() != record.version.getSize() || entry.getLastModified() != record.version.getLastModified()){
+				if(fileId2Record.remove(record.version.getFileId(), record)){
+					isDirty = true;
+				}
+			}
+		}
+	}
+
+	public int size(){
+		return fileId2Record.size();
+	}
+
+	private Record getRecord(FileVersion version){
+		Record record = fileId2Record.get(version.getFileId());
+		return record != null && record.version.equals(version) ? record : null;
+	}
+
+	private Record getOrCreateRecord(FileVersion version){
+		while(true){
+			Record record = fileId2Record.get(version.getFileId());
+			if(record != null && record.version.equals(version)){
+				return record;
+			}
+			Record newRecord = new Record(version);
+			if(record == null ? fileId2Record.putIfAbsent(version.getFileId(), newRecord) == null : fileId2Record.replace(version.getFileId(), record, newRecord)){
+				return newRecord;
+			}
+		}
+	}
+
+	/**Write the index if anything has been added since the last time. The file is replaced atomically.
+	 * 
+	 */
+	public synchronized void flush(){
+		if(!isDirty){
+			return;
+		}
+		isDirty = false;
+		long time = System.currentTimeMillis();
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try{
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath()), 64 * 1024))){
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(fileId2Record.size());
+				for(Record record : fileId2Record.values()){
+					synchronized (record) {
+						writeRecord(record, out);
+					}
+				}
+			}
+			try{
+				Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}catch(AtomicMoveNotSupportedException e){
+				Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			logger.debug(String.format("Wrote metadata index with %d files in %d ms.", fileId2Record.size(), System.currentTimeMillis() - time));
+		}catch(IOException e){
+			isDirty = true;
+			logger.warn("Could not write metadata index " + indexFile, e);
+		}
+	}
+
+	/**Write the index and stop the regular writes
+	 * 
+	 */
+	public void close(){
+		scheduler.shutdown();
+		flush();
+	}
+
+	private void load(){
+		if(!indexFile.exists()){
+			return;
+		}
+		long time = System.currentTimeMillis();
+		try(FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)){
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION){
+				logger.warn("Ignoring metadata index of unknown format: " + indexFile);
+				return;
+			}
+			int numberOfRecords = buffer.getInt();
+			for(int i = 0; i < numberOfRecords; i++){
+				Record record = readRecord(buffer);
+				fileId2Record.put(record.version.getFileId(), record);
+			}
+			logger.info(String.format("Loaded metadata index with %d files in %d ms.", fileId2Record.size(), System.currentTimeMillis() - time));
+		}catch(IOException | RuntimeException e){
+			fileId2Record.clear();
+			logger.warn("Could not read metadata index " + indexFile + ". Starting with an empty index.", e);
+		}
+	}
+
+	private static void writeRecord(Record record, DataOutputStream out) throws IOException{
+		out.writeInt(record.version.getFileId());
+		out.writeLong(record.version.getSize());
+		out.writeLong(record.version.getLastModified());
+		out.writeLong(record.numberOfReads);
+		out.writeLong(record.numberOfMatches);
+		if(record.auxiliary == null){
+			out.writeInt(-1);
+		}else{
+			out.writeInt(record.auxiliary.size());
+			for(Entry<String, String> entry : record.auxiliary.entrySet()){
+				writeString(entry.getKey(), out);
+				writeString(entry.getValue(), out);
+			}
+		}
+		Map<String, Integer> classification2Size = new HashMap<String, Integer>(record.classification2Size);
+		out.writeInt(classification2Size.size());
+		for(Entry<String, Integer> entry : classification2Size.entrySet()){
+			writeString(entry.getKey(), out);
+			out.writeInt(entry.getValue());
+		}
+	}
+
+	private static Record readRecord(ByteBuffer buffer){
+		Record record = new Record(new FileVersion(buffer.getInt(), buffer.getLong(), buffer.getLong()));
+		record.numberOfReads = buffer.getLong();
+		record.numberOfMatches = buffer.getLong();
+		int auxiliarySize = buffer.getInt();
+		if(auxiliarySize >= 0){
+			Map<String, String> auxiliary = new HashMap<String, String>();
+			for(int i = 0; i < auxiliarySize; i++){
+				auxiliary.put(readString(buffer), readString(buffer));
+			}
+			record.auxiliary = Collections.unmodifiableMap(auxiliary);
+		}
+		int numberOfClassifications = buffer.getInt();
+		for(int i = 0; i < numberOfClassifications; i++){
+			record.classification2Size.put(readString(buffer), buffer.getInt());
+		}
+		return record;
+	}
+
+	private static void writeString(String value, DataOutputStream out) throws IOException{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer){
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+	/**What is known about one version of a file
+	 * 
+	 */
+	private static class Record {
+		private final FileVersion version;
+		private volatile Map<String, String> auxiliary;
+		private volatile long numberOfReads = -1;
+		private volatile long numberOfMatches = -1;
+		private final ConcurrentMap<String, Integer> classification2Size = new ConcurrentHashMap<String, Integer>();
+
+		private Record(FileVersion version){
+			this.version = version;
+		}
+	}
+
+
+}
@@ -0,0 +1,148 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.cache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import rusch.megan6server.ServerProperties;
+import rusch.megan6server.serialization.BinaryJsonWriter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+
+/**Serialized responses of endpoints whose result only depends on the file, such as the auxiliary data and classification blocks.
+ * 
+ * The key has to contain everything the response depends on besides the file, including the modification time of the file,
+ * so that entries of changed files are never hit again. Together with the JSON the payload keeps its gzip
+ * encoding, hot responses are sent without serializing or compressing again.
+ * The cache is bounded by cache.payloadBytes. The keys are also indexed by file, so dropping the responses of a file does not look at the other entries.
+ */
+public class PayloadCache {
+
+	private final Cache<String, CachedPayload> key2Payload;
+	private final Map<Integer, Set<String>> fileId2Keys = new HashMap<Integer, Set<String>>();
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final BinaryJsonWriter binaryWriter = new BinaryJsonWriter(mapper);
+
+
+	public PayloadCache(){
+		key2Payload = CacheBuilder.newBuilder()
+				.maximumWeight(ServerProperties.getLong("cache.payloadBytes", 64 * 1024 * 1024))
+				.weigher(new Weigher<String, CachedPayload>() {
+					@Override
+					public int weigh(String key, CachedPayload payload) {
+						return payload.getWeight();
+					}
+				})
+				.removalListener(new RemovalListener<String, CachedPayload>() {
+					@Override
+					public void onRemoval(RemovalNotification<String, CachedPayload> notification) {
+						removeKey(notification.getKey());
+					}
+				})
+				.build();
+	}
+
+	/**Get the serialized response. If it is not cached the loader creates the object, which is then serialized.
+	 * Concurrent requests for the same key wait for a single load.
+	 * 
+	 * @param fileId the file the response is about
+	 * @param key
+	 * @param binary true for the format of {@link BinaryJsonWriter}, false for JSON
+	 * @param loader
+	 * @return
+	 * @throws IOException
+	 */
+	public CachedPayload get(int fileId, String key, final boolean binary, final Callable<?> loader) throws IOException{
+		try {
+			final String cacheKey = fileId + "/" + (binary ? "binary/" : "json/") + key;
+			return key2Payload.get(cacheKey, new Callable<CachedPayload>() {
+				@Override
+				public CachedPayload call() throws Exception {
+					Object value = loader.call();
+					CachedPayload payload = binary ? CachedPayload.serializeBinary(binaryWriter, value) : CachedPayload.serialize(mapper, value);
+					addKey(cacheKey);
+					return payload;
+				}
+			});
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not load " + key, e.getCause());
+		}
+	}
+
+	/**Drop all responses about a file
+	 * 
+	 * @param fileId
+	 */
+	public void invalidate(int fileId) {
+		Set<String> keys;
+		synchronized (fileId2Keys) {
+			keys = fileId2Keys.remove(fileId);
+		}
+		if(keys != null){
+			key2Payload.invalidateAll(keys);
+		}
+	}
+
+	private void addKey(String cacheKey){
+		int fileId = getFileId(cacheKey);
+		synchronized (fileId2Keys) {
+			Set<String> keys = fileId2Keys.get(fileId);
+			if(keys == null){
+				keys = new HashSet<String>();
+				fileId2Keys.put(fileId, keys);
+			}
+			keys.add(cacheKey);
+		}
+	}
+
+	private void removeKey(String cacheKey){
+		int fileId = getFileId(cacheKey);
+		synchronized (fileId2Keys) {
+			Set<String> keys = fileId2Keys.get(fileId);
+			if(keys != null && keys.remove(cacheKey) && keys.isEmpty()){
+				fileId2Keys.remove(fileId);
+			}
+		}
+	}
+
+	private static int getFileId(String cacheKey){
+		return Integer.parseInt(cacheKey.substring(0, cacheKey.indexOf('/')));
+	}
+
+	public synchronized void clear() {
+		key2Payload.invalidateAll();
+	}
+
+
+}
@@ -0,0 +1,276 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.cache;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import megan.data.IConnector;
+import megan.data.IReadBlockGetter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rusch.megan6server.RMAFileHandler;
+import rusch.megan6server.ServerProperties;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**Keeps {@link IReadBlockGetter}s open between getRead calls, so that a client looking at one read after the other
+ * does not open the file every time.
+ * 
+ * Getters are pooled per {@link FileVersion} and filter. A getter is used by one request at a time: it is borrowed,
+ * used and given back. Up to getter.pool.maxIdle getters per file and filter are kept, those not used for
+ * getter.pool.idleTimeout seconds are closed.
+ * 
+ * The idle getters of a key are changed only while holding the lock of their deque. A deque that has been removed from the map
+ * is dead: whoever finds it so after taking the lock starts over, so a getter is never given back into a deque that is being closed.
+ * Getters are closed outside of the locks.
+ */
+public class ReadBlockGetterPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReadBlockGetterPool.class);
+	private final ConcurrentMap<Key, Deque<IdleGetter>> key2Getters = new ConcurrentHashMap<Key, Deque<IdleGetter>>();
+	private final int maximumIdle = ServerProperties.getInt("getter.pool.maxIdle", 4);
+	private final long idleTimeout = TimeUnit.SECONDS.toMillis(ServerProperties.getLong("getter.pool.idleTimeout", 60));
+	private volatile boolean isShutdown = false;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ReadBlockGetterPool-%d").build());
+
+
+	public ReadBlockGetterPool(){
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try{
+					closeIdleGetters();
+				}catch(RuntimeException e){
+					logger.error("Problems closing idle read block getters.", e);
+				}
+			}
+		}, 30, 30, TimeUnit.SECONDS);
+	}
+
+	/**A getter that has been borrowed from the pool. Give it back with {@link ReadBlockGetterPool#release(Lease)}.
+	 *
+	 */
+	public static class Lease {
+		private final Key key;
+		private final IReadBlockGetter getter;
+
+		private Lease(Key key, IReadBlockGetter getter){
+			this.key = key;
+			this.getter = getter;
+		}
+
+		public IReadBlockGetter getGetter() {
+			return getter;
+		}
+	}
+
+	/**Borrow a getter for the file and filter. Opens a new one if none is idle.
+	 * 
+	 * @param rma3FileHandler
+	 * @param fileId
+	 * @param minScore
+	 * @param maxExpected
+	 * @param wantReadText
+	 * @param wantMatches
+	 * @return
+	 * @throws IOException
+	 */
+	public Lease borrow(RMAFileHandler rma3FileHandler, String fileId, float minScore, float maxExpected, boolean wantReadText, boolean wantMatches) throws IOException{
+		Key key = new Key(FileVersion.of(rma3FileHandler, fileId), minScore, maxExpected, wantReadText, wantMatches);
+		Deque<IdleGetter> getters = key2Getters.get(key);
+		if(getters != null){
+			IdleGetter idle;
+			synchronized (getters) {
+				idle = getters.pollFirst();
+			}
+			if(idle != null){
+				return new Lease(key, idle.getter);
+			}
+		}
+		IConnector connector = rma3FileHandler.getIConnector(String.valueOf(key.version.getFileId()));
+		return new Lease(key, connector.getReadBlockGetter(minScore, maxExpected, wantReadText, wantMatches));
+	}
+
+	/**Give a getter back. It is closed if enough getters of its kind are idle or it failed.
+	 * 
+	 * @param lease
+	 * @param reusable false if the getter failed and should be closed
+	 */
+	public void release(Lease lease, boolean reusable){
+		while(reusable && !isShutdown){
+			Deque<IdleGetter> getters = key2Getters.get(lease.key);
+			if(getters == null){
+				Deque<IdleGetter> newGetters = new ArrayDeque<IdleGetter>();
+				getters = key2Getters.putIfAbsent(lease.key, newGetters);
+				if(getters == null){
+					getters = newGetters;
+				}
+			}
+			synchronized (getters) {
+				if(key2Getters.get(lease.key) != getters){
+					// removed by invalidate, clear or the sweeper in the meantime
+					continue;
+				}
+				if(!isShutdown && getters.size() < maximumIdle){
+					// most recently used first, so that the others age out
+					getters.addFirst(new IdleGetter(lease.getter));
+					return;
+				}
+			}
+			break;
+		}
+		close(lease.getter);
+	}
+
+	/**Close all idle getters of a file
+	 * 
+	 * @param fileId
+	 */
+	public void invalidate(int fileId){
+		for(Entry<Key, Deque<IdleGetter>> entry : key2Getters.entrySet()){
+			if(entry.getKey().version.getFileId() == fileId){
+				remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	public void clear(){
+		for(Entry<Key, Deque<IdleGetter>> entry : key2Getters.entrySet()){
+			remove(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**Stop closing idle getters and close all getters in the pool. Getters that are borrowed are closed when they are returned.
+	 * 
+	 */
+	public void shutdown(){
+		isShutdown = true;
+		scheduler.shutdownNow();
+		clear();
+	}
+
+	private void closeIdleGetters(){
+		long now = System.currentTimeMillis();
+		for(Entry<Key, Deque<IdleGetter>> entry : key2Getters.entrySet()){
+			Deque<IdleGetter> getters = entry.getValue();
+			List<IdleGetter> expired = new ArrayList<IdleGetter>();
+			synchronized (getters) {
+				while(!getters.isEmpty() && now - getters.peekLast().since > idleTimeout){
+					expired.add(getters.pollLast());
+				}
+				if(getters.isEmpty()){
+					key2Getters.remove(entry.getKey(), getters);
+				}
+			}
+			closeAll(expired);
+		}
+	}
+
+	/**Take the deque out of the pool and close its getters
+	 * 
+	 * @param key
+	 * @param getters
+	 */
+	private void remove(Key key, Deque<IdleGetter> getters){
+		List<IdleGetter> removed;
+		synchronized (getters) {
+			if(!key2Getters.remove(key, getters)){
+				return;
+			}
+			removed = new ArrayList<IdleGetter>(getters);
+			getters.clear();
+		}
+		closeAll(removed);
+	}
+
+	private static void closeAll(List<IdleGetter> getters){
+		for(IdleGetter idle : getters){
+			close(idle.getter);
+		}
+	}
+
+	private static void close(IReadBlockGetter getter){
+		try{
+			getter.close();
+		}catch(RuntimeException e){
+			logger.warn("Problems closing a read block getter.", e);
+		}
+	}
+
+
+	private static class IdleGetter {
+		private final IReadBlockGetter getter;
+		private final long since = System.currentTimeMillis();
+
+		private IdleGetter(IReadBlockGetter getter){
+			this.getter = getter;
+		}
+	}
+
+	private static final class Key {
+		private final FileVersion version;
+		private final float minScore;
+		private final float maxExpected;
+		private final boolean wantReadText;
+		private final boolean wantMatches;
+
+		private Key(FileVersion version, float minScore, float maxExpected, boolean wantReadText, boolean wantMatches){
+			this.version = version;
+			this.minScore = minScore;
+			this.maxExpected = maxExpected;
+			this.wantReadText = wantReadText;
+			this.wantMatches = wantMatches;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = version.hashCode();
+			result = 31 * result + Float.floatToIntBits(minScore);
+			result = 31 * result + Float.floatToIntBits(maxExpected);
+			result = 31 * result + (wantReadText ? 1 : 0);
+			return 31 * result + (wantMatches ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)){
+				return false;
+			}
+			Key other = (Key) obj;
+			return version.equals(other.version) && Float.floatToIntBits(minScore) == Float.floatToIntBits(other.minScore)
+					&& Float.floatToIntBits(maxExpected) == Float.floatToIntBits(other.maxExpected)
+					&& wantReadText == other.wantReadText && wantMatches == other.wantMatches;
+		}
+	}
+
+
+}
@@ -0,0 +1,162 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.compare;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+
+import megan.data.IClassificationBlock;
+import rusch.megan6server.batch.BatchExecutor;
+
+
+/**Computes a {@link ComparisonMatrix} from the classification blocks of several files. The blocks are loaded in parallel by a {@link BatchExecutor}.
+ * 
+ * Normalizations:
+ * <ul>
+ * <li>none: the counts as they are</li>
+ * <li>relative: each count divided by the total of its file</li>
+ * <li>scaled: the counts of each file scaled to the smallest total, as MEGAN normalizes comparisons</li>
+ * </ul>
+ */
+public class ComparisonBuilder {
+
+	public static enum NORMALIZATION {NONE, RELATIVE, SCALED};
+	private final BatchExecutor batchExecutor;
+
+
+	public ComparisonBuilder(BatchExecutor batchExecutor){
+		this.batchExecutor = batchExecutor;
+	}
+
+	/**Loads one classification block
+	 *
+	 */
+	public static interface BlockLoader {
+		IClassificationBlock load(String fileId, String classification) throws Exception;
+	}
+
+	/**
+	 * 
+	 * @param fileIds
+	 * @param classification
+	 * @param normalization
+	 * @param weighted use the weighted sums instead of the read counts
+	 * @param loader
+	 * @return
+	 */
+	public ComparisonMatrix build(String[] fileIds, String classification, NORMALIZATION normalization, final boolean weighted, final BlockLoader loader){
+		Map<String, Map<String, Object>> results = batchExecutor.execute(fileIds, new String[]{classification}, new BatchExecutor.Operation() {
+			@Override
+			public Object run(String fileId, String operation) throws Exception {
+				return toCounts(loader.load(fileId, operation), weighted);
+			}
+		});
+		List<String> columns = new ArrayList<String>();
+		List<Map<Integer, Double>> columnCounts = new ArrayList<Map<Integer, Double>>();
+		Map<String, String> errors = new LinkedHashMap<String, String>();
+		TreeSet<Integer> allClassIds = new TreeSet<Integer>();
+		for(Entry<String, Map<String, Object>> entry : results.entrySet()){
+			@SuppressWarnings("unchecked")
+			Map<Integer, Double> counts = (Map<Integer, Double>) entry.getValue().get(classification);
+			if(counts == null){
+				Map<?, ?> fileErrors = (Map<?, ?>) entry.getValue().get(BatchExecutor.ERRORS);
+				errors.put(entry.getKey(), fileErrors == null || fileErrors.isEmpty() ? "No result" : String.valueOf(fileErrors.values().iterator().next()));
+				continue;
+			}
+			columns.add(entry.getKey());
+			columnCounts.add(counts);
+			allClassIds.addAll(counts.keySet());
+		}
+		int[] classIds = new int[allClassIds.size()];
+		Map<Integer, Integer> classId2Row = new HashMap<Integer, Integer>();
+		int row = 0;
+		for(int classId : allClassIds){
+			classIds[row] = classId;
+			classId2Row.put(classId, row++);
+		}
+		double[] totals = new double[columns.size()];
+		double[] values = new double[columns.size() * classIds.length];
+		for(int column = 0; column < columns.size(); column++){
+			int offset = column * classIds.length;
+			for(Entry<Integer, Double> count : columnCounts.get(column).entrySet()){
+				values[offset + classId2Row.get(count.getKey())] = count.getValue();
+				totals[column] += count.getValue();
+			}
+		}
+		normalize(values, totals, classIds.length, normalization);
+		return new ComparisonMatrix(classification, normalization.name().toLowerCase(), columns.toArray(new String[columns.size()]), classIds, totals, values, errors);
+	}
+
+	private static Map<Integer, Double> toCounts(IClassificationBlock block, boolean weighted){
+		Map<Integer, Double> counts = new HashMap<Integer, Double>();
+		for(Integer classId : block.getKeySet()){
+			double count = weighted ? block.getWeightedSum(classId) : block.getSum(classId);
+			if(count != 0){
+				counts.put(classId, count);
+			}
+		}
+		return counts;
+	}
+
+	private static void normalize(double[] values, double[] totals, int rows, NORMALIZATION normalization){
+		if(normalization == NORMALIZATION.NONE || totals.length == 0){
+			return;
+		}
+		double smallestTotal = Double.MAX_VALUE;
+		for(double total : totals){
+			if(total > 0){
+				smallestTotal = Math.min(smallestTotal, total);
+			}
+		}
+		for(int column = 0; column < totals.length; column++){
+			if(totals[column] == 0){
+				continue;
+			}
+			double factor = normalization == NORMALIZATION.RELATIVE ? 1 / totals[column] : smallestTotal / totals[column];
+			int offset = column * rows;
+			for(int i = offset; i < offset + rows; i++){
+				values[i] *= factor;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param normalization none, relative or scaled, case does not matter. null for none.
+	 * @return
+	 */
+	public static NORMALIZATION parseNormalization(String normalization){
+		if(normalization == null){
+			return NORMALIZATION.NONE;
+		}
+		try{
+			return NORMALIZATION.valueOf(normalization.trim().toUpperCase());
+		}catch(IllegalArgumentException e){
+			throw new IllegalArgumentException("Unknown normalization " + normalization + ". Use one of " + Arrays.toString(NORMALIZATION.values()).toLowerCase());
+		}
+	}
+
+
+}
@@ -0,0 +1,97 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.compare;
+
+import java.util.Map;
+
+
+/**The counts of one classification for several files as a dense class by sample matrix.
+ * 
+ * The values are stored column by column: the counts of the file fileIds[j] for the classes classIds are
+ * values[j * classIds.length] to values[(j + 1) * classIds.length - 1]. Classes a file has no reads for count 0.
+ */
+public class ComparisonMatrix {
+	private String classification;
+	private String normalization;
+	private String[] fileIds;
+	private int[] classIds;
+	private double[] totals;
+	private double[] values;
+	private Map<String, String> errors;
+
+
+	public ComparisonMatrix(){
+	}
+
+	public ComparisonMatrix(String classification, String normalization, String[] fileIds, int[] classIds, double[] totals, double[] values, Map<String, String> errors){
+		this.classification = classification;
+		this.normalization = normalization;
+		this.fileIds = fileIds;
+		this.classIds = classIds;
+		this.totals = totals;
+		this.values = values;
+		this.errors = errors;
+	}
+
+	public String getClassification() {
+		return classification;
+	}
+
+	public String getNormalization() {
+		return normalization;
+	}
+
+	/**
+	 * 
+	 * @return the files that could be read, the columns of the matrix
+	 */
+	public String[] getFileIds() {
+		return fileIds;
+	}
+
+	/**
+	 * 
+	 * @return the sorted union of the classes of all files, the rows of the matrix
+	 */
+	public int[] getClassIds() {
+		return classIds;
+	}
+
+	/**
+	 * 
+	 * @return the sum over all classes of each file before normalization
+	 */
+	public double[] getTotals() {
+		return totals;
+	}
+
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * 
+	 * @return the files that could not be read with the reason
+	 */
+	public Map<String, String> getErrors() {
+		return errors;
+	}
+
+
+}
@@ -0,0 +1,232 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.filesystem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rusch.megan5client.RMADataset;
+import rusch.megan6server.RMAFileHandler.FILETYPE;
+
+
+/**An immutable snapshot of all RMA/DAA files below the root directory.
+ * 
+ * A new catalog is built for every scan or batch of filesystem changes and then swapped in as a whole,
+ * so a request that holds a catalog always sees ids, paths and types of the same scan without any locking.
+ */
+public class DatasetCatalog {
+
+	public static final DatasetCatalog EMPTY = new DatasetCatalog(null, new Entry[0], 0);
+
+	private final File rootDirectory;
+	private final long version;
+	private final Entry[] entries;
+	private final Map<Integer, Entry> id2Entry;
+	private final Map<String, Entry> suffix2Entry;
+
+
+	private DatasetCatalog(File rootDirectory, Entry[] entries, long version){
+		this.rootDirectory = rootDirectory;
+		this.entries = entries;
+		this.version = version;
+		Map<Integer, Entry> id2Entry = new HashMap<Integer, Entry>();
+		for(Entry entry : entries){
+			id2Entry.put(entry.getId(), entry);
+		}
+		this.id2Entry = Collections.unmodifiableMap(id2Entry);
+		this.suffix2Entry = Collections.unmodifiableMap(buildSuffixIndex(entries));
+	}
+
+	/**Build the catalog from the data files of a scan. Entries are ordered by their name relative to the root directory.
+	 * 
+	 * @param rootDirectory
+	 * @param manifest
+	 * @param version
+	 * @return
+	 */
+	public static DatasetCatalog build(File rootDirectory, ScanManifest manifest, long version){
+		String prefix = rootDirectory.getAbsolutePath() + File.separator;
+		List<Entry> entries = new ArrayList<Entry>();
+		for(ScanManifest.Entry file : manifest.getEntries()){
+			if(file.getType() != null){
+				entries.add(new Entry(Math.abs(file.getPath().hashCode()), file.getPath(), file.getPath().replace(prefix, ""), file.getType(), file.getSize(), file.getLastModified()));
+			}
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry o1, Entry o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+		return new DatasetCatalog(rootDirectory, entries.toArray(new Entry[0]), version);
+	}
+
+	/**
+	 * Build the index used to resolve path identifiers. Every file is stored under each of its path suffixes that start after a separator,
+	 * e.g. /data/project/sample.rma6 is stored as data/project/sample.rma6, project/sample.rma6 and sample.rma6.
+	 * If several files share a suffix the first one wins.
+	 * 
+	 * @param entries
+	 * @return suffix to entry
+	 */
+	private static Map<String, Entry> buildSuffixIndex(Entry[] entries){
+		Map<String, Entry> suffix2Entry = new HashMap<String, Entry>();
+		for(Entry entry : entries){
+			String path = entry.getPath();
+			suffix2Entry.putIfAbsent(normalize(path), entry);
+			for(int i = path.indexOf(File.separatorChar); i != -1; i = path.indexOf(File.separatorChar, i + 1)){
+				suffix2Entry.putIfAbsent(path.substring(i + 1), entry);
+			}
+		}
+		return suffix2Entry;
+	}
+
+	/**
+	 * 
+	 * @param fileId
+	 * @return the entry or null if there is no such file
+	 */
+	public Entry get(int fileId){
+		return id2Entry.get(fileId);
+	}
+
+	/**Find the file by its absolute path or by a part of its path that starts after a separator, e.g. project/sample.rma6.
+	 * Parts that start within a file or folder name, e.g. ample.rma6, are not accepted.
+	 * 
+	 * @param path
+	 * @return the entry or null if there is no such file
+	 */
+	public Entry findByPath(String path){
+		return suffix2Entry.get(normalize(path));
+	}
+
+	/**Use the platform separator and drop leading separators
+	 * 
+	 * @param file
+	 * @return
+	 */
+	private static String normalize(String file){
+		if(File.separatorChar != '/'){
+			file = file.replace('/', File.separatorChar);
+		}
+		int start = 0;
+		while(start < file.length() && file.charAt(start) == File.separatorChar){
+			start++;
+		}
+		return file.substring(start);
+	}
+
+	public List<Entry> getEntries(){
+		return Collections.unmodifiableList(Arrays.asList(entries));
+	}
+
+	public int size(){
+		return entries.length;
+	}
+
+	/**
+	 * 
+	 * @return the root directory or null for the empty catalog
+	 */
+	public File getRootDirectory() {
+		return rootDirectory;
+	}
+
+	/**The version increases with every new catalog
+	 * 
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**Create the datasets of all files. {@link RMADataset} is mutable and gets decorated by the caller, so every call returns new objects.
+	 * 
+	 * @return
+	 */
+	public RMADataset[] createDatasets(){
+		RMADataset[] datasets = new RMADataset[entries.length];
+		for(int i = 0; i < entries.length; i++){
+			datasets[i] = new RMADataset(entries[i].getId(), entries[i].getName());
+		}
+		return datasets;
+	}
+
+
+	/**A single data file
+	 * 
+	 */
+	public static class Entry {
+		private final int id;
+		private final String path;
+		private final String name;
+		private final FILETYPE type;
+		private final long size;
+		private final long lastModified;
+
+		public Entry(int id, String path, String name, FILETYPE type, long size, long lastModified) {
+			this.id = id;
+			this.path = path;
+			this.name = name;
+			this.type = type;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * 
+		 * @return the absolute path
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * 
+		 * @return the path relative to the root directory
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public FILETYPE getType() {
+			return type;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+
+
+}
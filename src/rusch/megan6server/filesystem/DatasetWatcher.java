@@ -0,0 +1,296 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.filesystem;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**Watches the root directory and all its subdirectories for added, removed and modified files.
+ * 
+ * Events are collected until there has been no new event for the debounce time, so that copying a large file or a whole folder
+ * results in a single notification of the {@link ChangeListener}. If the {@link WatchService} loses events the listener is asked for a full rescan.
+ * 
+ * A directory that is removed or renamed keeps its {@link WatchKey} valid as long as it exists under some name, so its key and the keys
+ * of all directories below it are cancelled when it is reported as deleted. Its new name is then registered like a new directory.
+ * 
+ * Every directory takes one watch. If one cannot be registered, e.g. because fs.inotify.max_user_watches is reached on Linux,
+ * changes below it would go unnoticed. The constructor fails then, and a running watcher hands over the changes it has and stops.
+ * Changes made by other machines on network filesystems are not reported at all.
+ */
+public class DatasetWatcher implements Runnable, Closeable {
+
+	/**Gets notified about changes in the watched directories
+	 * 
+	 */
+	public interface ChangeListener {
+		/**Files or directories that have been added, removed or modified
+		 * 
+		 * @param paths
+		 */
+		void filesChanged(Set<String> paths);
+
+		/**Events have been lost, everything has to be scanned again
+		 * 
+		 */
+		void eventsLost();
+
+		/**A new directory could not be registered. The watcher has stopped, changes are not reported anymore.
+		 * 
+		 */
+		void watchFailed();
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(DatasetWatcher.class);
+	private final File rootDirectory;
+	private final WatchService watchService;
+	private final Map<WatchKey, String> key2Directory = new HashMap<WatchKey, String>();
+	private final NavigableMap<String, WatchKey> directory2Key = new TreeMap<String, WatchKey>();
+	private final Map<WatchKey, Object> key2FileKey = new HashMap<WatchKey, Object>();
+	private final Map<Object, WatchKey> fileKey2Key = new HashMap<Object, WatchKey>();
+	private final ChangeListener listener;
+	private final long debounce;
+	private final long maximumDelay;
+	private final Thread thread;
+	private volatile boolean closed = false;
+	private boolean registrationFailed = false;
+
+
+	/**
+	 * 
+	 * @param rootDirectory
+	 * @param debounce time in ms without events before the collected changes are handed to the listener
+	 * @param listener
+	 * @throws IOException if the watch service cannot be created or not every directory can be registered
+	 */
+	public DatasetWatcher(File rootDirectory, long debounce, ChangeListener listener) throws IOException{
+		this.rootDirectory = rootDirectory;
+		this.debounce = debounce;
+		this.maximumDelay = 10 * debounce;
+		this.listener = listener;
+		this.watchService = rootDirectory.toPath().getFileSystem().newWatchService();
+		long time = System.currentTimeMillis();
+		registerAll(rootDirectory.getPath(), null, new HashSet<Object>());
+		if(registrationFailed){
+			watchService.close();
+			throw new IOException("Cannot watch all directories below " + rootDirectory + ". On Linux raise fs.inotify.max_user_watches.");
+		}
+		logger.info(String.format("Watching %d directories below %s. Registering took %d ms.", key2Directory.size(), rootDirectory, System.currentTimeMillis() - time));
+		this.thread = new Thread(this, "DatasetWatcher");
+		this.thread.setDaemon(true);
+	}
+
+	public void start(){
+		thread.start();
+	}
+
+	public File getRootDirectory() {
+		return rootDirectory;
+	}
+
+	/**Register the directory and all its subdirectories. Candidate files found in newly created directories are added to the changes.
+	 * 
+	 * A directory that is already watched under another name that does not exist anymore has been moved, it is watched under the new name from now on.
+	 * If the other name still exists the directory is reached through a symbolic link and is skipped.
+	 * 
+	 * @param directory
+	 * @param changes null when registering the initial tree
+	 * @param visited the directories seen by this registration, to stop at cycles of symbolic links
+	 */
+	private void registerAll(String directory, Set<String> changes, Set<Object> visited){
+		Path path = Paths.get(directory);
+		try{
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			Object fileKey = attributes.fileKey() != null ? attributes.fileKey() : path.toRealPath();
+			if(!visited.add(fileKey)){
+				return;
+			}
+			WatchKey known = fileKey2Key.get(fileKey);
+			String knownDirectory = known == null ? null : key2Directory.get(known);
+			if(knownDirectory != null && !knownDirectory.equals(directory)){
+				if(Files.exists(Paths.get(knownDirectory))){
+					return;
+				}
+				unregister(known);
+				known = null;
+			}
+			if(known == null){
+				WatchKey key = path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+				key2Directory.put(key, directory);
+				directory2Key.put(directory, key);
+				key2FileKey.put(key, fileKey);
+				fileKey2Key.put(fileKey, key);
+			}
+		}catch(NoSuchFileException e){
+			// removed again
+			return;
+		}catch(IOException e){
+			logger.warn("Cannot watch directory " + directory, e);
+			registrationFailed = true;
+			if(changes == null){
+				return;
+			}
+			// still report the files that are there now
+		}
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(path)){
+			for(Path child : stream){
+				String name = directory + File.separator + child.getFileName();
+				if(Files.isDirectory(child)){
+					if(Files.isReadable(child)){
+						registerAll(name, changes, visited);
+					}
+				}else if(changes != null && FileSystemScanner.isCandidate(name)){
+					changes.add(name);
+				}
+			}
+		}catch(IOException e){
+			logger.warn("Cannot list directory " + directory, e);
+		}
+	}
+
+	@Override
+	public void run() {
+		try{
+			WatchKey key = watchService.take();
+			while(!closed){
+				Set<String> changes = new HashSet<String>();
+				boolean eventsLost = false;
+				long first = System.currentTimeMillis();
+				while(key != null && System.currentTimeMillis() - first < maximumDelay){
+					eventsLost |= processEvents(key, changes);
+					key = watchService.poll(debounce, TimeUnit.MILLISECONDS);
+				}
+				try{
+					if(eventsLost){
+						listener.eventsLost();
+					}else if(!changes.isEmpty()){
+						listener.filesChanged(changes);
+					}
+				}catch(RuntimeException e){
+					logger.error("Error applying filesystem changes", e);
+				}
+				if(registrationFailed){
+					logger.warn("Stopped watching " + rootDirectory + ", a new directory could not be registered.");
+					listener.watchFailed();
+					return;
+				}
+				if(key == null){
+					key = watchService.take();
+				}
+			}
+		}catch(InterruptedException | ClosedWatchServiceException e){
+			// closed
+		}
+		logger.info("Stopped watching " + rootDirectory);
+	}
+
+	/**Collect the changes of one key
+	 * 
+	 * @param key
+	 * @param changes
+	 * @return true if events have been lost
+	 */
+	private boolean processEvents(WatchKey key, Set<String> changes){
+		boolean eventsLost = false;
+		String directory = key2Directory.get(key);
+		for(WatchEvent<?> event : key.pollEvents()){
+			if(event.kind() == OVERFLOW){
+				eventsLost = true;
+				continue;
+			}
+			if(directory == null){
+				continue;
+			}
+			String name = directory + File.separator + event.context();
+			changes.add(name);
+			if(event.kind() == ENTRY_DELETE){
+				unregisterAll(name);
+			}else if(event.kind() == ENTRY_CREATE && Files.isDirectory(Paths.get(name))){
+				registerAll(name, changes, new HashSet<Object>());
+			}
+		}
+		if(!key.reset()){
+			unregister(key);
+		}
+		return eventsLost;
+	}
+
+	/**Stop watching a removed or renamed directory and all directories below it
+	 * 
+	 * @param directory
+	 */
+	private void unregisterAll(String directory){
+		WatchKey key = directory2Key.get(directory);
+		if(key != null){
+			unregister(key);
+		}
+		String prefix = directory + File.separator;
+		for(WatchKey child : new ArrayList<WatchKey>(directory2Key.subMap(prefix, prefix + Character.MAX_VALUE).values())){
+			unregister(child);
+		}
+	}
+
+	private void unregister(WatchKey key){
+		key.cancel();
+		String directory = key2Directory.remove(key);
+		if(directory != null){
+			directory2Key.remove(directory, key);
+		}
+		Object fileKey = key2FileKey.remove(key);
+		if(fileKey != null){
+			fileKey2Key.remove(fileKey, key);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		watchService.close();
+		thread.interrupt();
+	}
+
+
+}
@@ -0,0 +1,475 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import megan.daa.io.DAAParser;
+import megan.rma2.RMA2File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rusch.megan6server.RMAFileHandler.FILETYPE;
+import rusch.megan6server.ServerProperties;
+
+
+/**Scans a root directory for RMA and meganized DAA files.
+ * 
+ * Directories are listed in parallel on a {@link ForkJoinPool}. Files whose size and modification time match the {@link ScanManifest}
+ * of the previous scan are not opened again, only new or changed .rma and .daa files have to be probed for their version.
+ * The manifest is persisted (rma.manifestFile) so that this also holds for the first scan after a restart.
+ * A file that cannot be probed is left out of the manifest, so that the next scan tries again.
+ * A directory that is reachable under several paths, e.g. through symbolic links, is listed under the smallest of them,
+ * comparing path by path component, so that the paths and with them the ids of the files do not depend on the order of the scan.
+ */
+public class FileSystemScanner {
+
+	private static final Logger logger = LoggerFactory.getLogger(FileSystemScanner.class);
+	private final int threads;
+	private File manifestFile;
+	private ScanManifest manifest;
+
+
+	public FileSystemScanner(){
+		this.threads = Math.max(1, ServerProperties.getInt("rma.scanThreads", 8));
+	}
+
+	/**Scan the root directory. Only one scan runs at a time.
+	 * 
+	 * @param rootDirectory
+	 * @return the manifest of the root directory. Entries without type are not RMA/meganized DAA files.
+	 * @throws IOException
+	 */
+	public synchronized ScanManifest scan(File rootDirectory) throws IOException{
+		File manifestFile = getManifestFile(rootDirectory);
+		loadManifest(rootDirectory);
+		long time = System.currentTimeMillis();
+		ScanTask scanTask = new ScanTask(manifest);
+		Path root = rootDirectory.toPath();
+		Object rootKey = getDirectoryKey(root, Files.readAttributes(root, BasicFileAttributes.class));
+		scanTask.claim(rootKey, rootDirectory.getPath());
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try{
+			pool.invoke(scanTask.new DirectoryTask(root, rootDirectory.getPath(), rootKey));
+		}finally{
+			pool.shutdown();
+		}
+		manifest = new ScanManifest(scanTask.getPath2Entry());
+		logger.info(String.format("Scanned %d candidate files in %d ms, %d of them were new or changed.", manifest.size(), System.currentTimeMillis() - time, scanTask.probed.get()));
+		try {
+			manifest.save(manifestFile);
+		} catch (IOException e) {
+			logger.warn("Could not write scan manifest " + manifestFile, e);
+		}
+		return manifest;
+	}
+
+	/**The manifest of the last scan as it was persisted, without looking at the filesystem.
+	 * This gives the files to serve right after a restart while the real scan is still running.
+	 * 
+	 * @param rootDirectory
+	 * @return the manifest, empty if there is none for this root directory
+	 */
+	public synchronized ScanManifest loadManifest(File rootDirectory){
+		File manifestFile = getManifestFile(rootDirectory);
+		if(manifest == null || !manifestFile.equals(this.manifestFile)){
+			manifest = ScanManifest.load(manifestFile);
+			this.manifestFile = manifestFile;
+		}
+		return manifest;
+	}
+
+	/**The manifest of the last scan with every entry checked against the filesystem. Files that are gone are dropped,
+	 * files whose size or modification time has changed are probed again. Directories are not listed, so this costs one stat per file.
+	 * New files are only found by the next scan.
+	 * 
+	 * @param rootDirectory
+	 * @return the verified manifest, empty if there is none for this root directory
+	 */
+	public synchronized ScanManifest verifyManifest(File rootDirectory){
+		ScanManifest loaded = loadManifest(rootDirectory);
+		if(loaded.size() == 0){
+			return loaded;
+		}
+		long time = System.currentTimeMillis();
+		VerifyTask verifyTask = new VerifyTask(loaded, loaded.getEntries().toArray(new ScanManifest.Entry[0]), 0, loaded.size());
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try{
+			pool.invoke(verifyTask);
+		}finally{
+			pool.shutdown();
+		}
+		manifest = new ScanManifest(verifyTask.path2Entry);
+		logger.info(String.format("Verified %d files of the scan manifest in %d ms, %d are gone, %d have changed.", loaded.size(), System.currentTimeMillis() - time,
+				loaded.size() - manifest.size(), verifyTask.probed.get()));
+		return manifest;
+	}
+
+	/**Apply changes reported for single files or directories to the manifest of the last scan. Only the given paths are probed.
+	 * A path that does not exist anymore removes the file or, if it was a directory, all files below it.
+	 * 
+	 * @param rootDirectory
+	 * @param paths
+	 * @return the updated manifest
+	 * @throws IOException
+	 */
+	public synchronized ScanManifest update(File rootDirectory, Collection<String> paths) throws IOException{
+		if(manifest == null || !getManifestFile(rootDirectory).equals(manifestFile)){
+			return scan(rootDirectory);
+		}
+		TreeMap<String, ScanManifest.Entry> path2Entry = new TreeMap<String, ScanManifest.Entry>(manifest.getPath2Entry());
+		for(String path : paths){
+			BasicFileAttributes attributes = null;
+			try{
+				attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+			}catch(IOException e){
+				// removed
+			}
+			if(attributes == null){
+				path2Entry.remove(path);
+				String prefix = path + File.separator;
+				path2Entry.subMap(prefix, prefix + Character.MAX_VALUE).clear();
+			}else if(!attributes.isDirectory() && isCandidate(path)){
+				try{
+					path2Entry.put(path, probe(manifest, path, attributes));
+				}catch(IOException e){
+					logger.warn("Could not detect type of file " + path + ". Will try again with the next scan.", e);
+					path2Entry.remove(path);
+				}
+			}
+		}
+		manifest = new ScanManifest(path2Entry);
+		try {
+			manifest.save(manifestFile);
+		} catch (IOException e) {
+			logger.warn("Could not write scan manifest " + manifestFile, e);
+		}
+		return manifest;
+	}
+
+	/**The manifest location is taken from rma.manifestFile. Default is a file in the temp directory that is specific to the root directory.
+	 * 
+	 * @param rootDirectory
+	 * @return
+	 */
+	private static File getManifestFile(File rootDirectory){
+		String manifestFile = ServerProperties.getString("rma.manifestFile", null);
+		if(manifestFile != null){
+			return new File(manifestFile).getAbsoluteFile();
+		}
+		return new File(System.getProperty("java.io.tmpdir"), "meganserver-" + Math.abs(rootDirectory.getAbsolutePath().hashCode()) + ".manifest");
+	}
+
+	private static Object getDirectoryKey(Path directory, BasicFileAttributes attributes) throws IOException{
+		return attributes.fileKey() != null ? attributes.fileKey() : directory.toRealPath();
+	}
+
+	/**Compares two paths component by component, so that a directory sorts directly before its content
+	 * and the order of two paths is the order of their first differing component.
+	 * 
+	 * @param path1
+	 * @param path2
+	 * @return
+	 */
+	static int comparePaths(String path1, String path2){
+		int length = Math.min(path1.length(), path2.length());
+		for(int i = 0; i < length; i++){
+			char c1 = path1.charAt(i);
+			char c2 = path2.charAt(i);
+			if(c1 != c2){
+				if(c1 == File.separatorChar){
+					return -1;
+				}
+				if(c2 == File.separatorChar){
+					return 1;
+				}
+				return c1 - c2;
+			}
+		}
+		return path1.length() - path2.length();
+	}
+
+	/**Check if the name of the file allows it to be a RMA or DAA file
+	 * 
+	 * @param fileName
+	 * @return
+	 */
+	public static boolean isCandidate(String fileName){
+		String lowerCase = fileName.toLowerCase();
+		return lowerCase.endsWith(".rma2") || lowerCase.endsWith(".rma3") || lowerCase.endsWith(".rma6") || lowerCase.endsWith(".rma") || lowerCase.endsWith(".daa");
+	}
+
+	/**Detect the type of the file. .rma and .daa files have to be opened for this.
+	 * 
+	 * @param rmafile
+	 * @return the type or null if this is not a RMA/meganized DAA file
+	 * @throws IOException if the file could not be read. The type is unknown then, not absent.
+	 */
+	public static FILETYPE detectFileType(String rmafile) throws IOException{
+		FILETYPE fileType = null;
+		if (rmafile.toLowerCase().endsWith(".rma2")) {
+			fileType = FILETYPE.RMA2_FILE;
+		} else if (rmafile.toLowerCase().endsWith(".rma3")) {
+			fileType = FILETYPE.RMA3_FILE;
+		} else if (rmafile.toLowerCase().endsWith(".rma6")) {
+			fileType = FILETYPE.RMA6_FILE;
+		} else if (rmafile.toLowerCase().endsWith(".rma")) {
+			int version = RMA2File.getRMAVersion(new File(rmafile));
+			if (version == 2)
+				fileType = FILETYPE.RMA2_FILE;
+			else if (version == 3)
+				fileType = FILETYPE.RMA3_FILE;
+			else if (version == 6)
+				fileType = FILETYPE.RMA6_FILE;
+		} else if (rmafile.toLowerCase().endsWith(".daa")) {
+			fileType = FILETYPE.DAA_FILE;
+			if(!DAAParser.isMeganizedDAAFile(rmafile, true)){
+				logger.warn("File " + rmafile + " is a daa file that has not been meganized. Will ignore it.");
+				fileType = null;
+			}
+		}
+		return fileType;
+	}
+
+	/**Does not need to probe a file if size and modification time are unchanged
+	 * 
+	 * @param previous
+	 * @param path
+	 * @param attributes
+	 * @return
+	 * @throws IOException if the file could not be probed. It must not go into the manifest then.
+	 */
+	static ScanManifest.Entry probe(ScanManifest previous, String path, BasicFileAttributes attributes) throws IOException{
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		ScanManifest.Entry entry = previous.get(path);
+		if(entry != null && entry.isUpToDate(size, lastModified)){
+			return entry;
+		}
+		return new ScanManifest.Entry(path, size, lastModified, detectFileType(path));
+	}
+
+
+	/**Checks a range of manifest entries against the filesystem, splitting large ranges
+	 * 
+	 */
+	private static class VerifyTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int BATCH_SIZE = 256;
+		private final ScanManifest previous;
+		private final ScanManifest.Entry[] entries;
+		private final int start;
+		private final int end;
+		private final Map<String, ScanManifest.Entry> path2Entry;
+		private final AtomicInteger probed;
+
+		private VerifyTask(ScanManifest previous, ScanManifest.Entry[] entries, int start, int end){
+			this(previous, entries, start, end, new ConcurrentHashMap<String, ScanManifest.Entry>(), new AtomicInteger());
+		}
+
+		private VerifyTask(ScanManifest previous, ScanManifest.Entry[] entries, int start, int end, Map<String, ScanManifest.Entry> path2Entry, AtomicInteger probed){
+			this.previous = previous;
+			this.entries = entries;
+			this.start = start;
+			this.end = end;
+			this.path2Entry = path2Entry;
+			this.probed = probed;
+		}
+
+		@Override
+		protected void compute() {
+			if(end - start > BATCH_SIZE){
+				int middle = (start + end) >>> 1;
+				invokeAll(new VerifyTask(previous, entries, start, middle, path2Entry, probed), new VerifyTask(previous, entries, middle, end, path2Entry, probed));
+				return;
+			}
+			for(int i = start; i < end; i++){
+				String path = entries[i].getPath();
+				BasicFileAttributes attributes;
+				try{
+					attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+				}catch(IOException e){
+					// removed since the last scan
+					continue;
+				}
+				if(attributes.isDirectory()){
+					continue;
+				}
+				ScanManifest.Entry entry;
+				try{
+					entry = probe(previous, path, attributes);
+				}catch(IOException e){
+					logger.warn("Could not detect type of file " + path + ". Will try again with the next scan.", e);
+					continue;
+				}
+				if(entry != entries[i]){
+					probed.incrementAndGet();
+				}
+				path2Entry.put(path, entry);
+			}
+		}
+	}
+
+
+	/**State of one scan
+	 * 
+	 */
+	private static class ScanTask {
+		private final ScanManifest previous;
+		private final Map<Object, String> key2Directory = new ConcurrentHashMap<Object, String>();
+		private final Queue<Listing> listings = new ConcurrentLinkedQueue<Listing>();
+		private final AtomicInteger probed = new AtomicInteger();
+
+		private ScanTask(ScanManifest previous){
+			this.previous = previous;
+		}
+
+		/**Claim a directory for a path. Succeeds if the directory has not been seen yet or only under larger paths.
+		 * 
+		 * @param key
+		 * @param directoryName
+		 * @return true if the directory has to be listed under this path
+		 */
+		private boolean claim(Object key, String directoryName){
+			while(true){
+				String current = key2Directory.putIfAbsent(key, directoryName);
+				if(current == null){
+					return true;
+				}
+				if(comparePaths(directoryName, current) >= 0){
+					return false;
+				}
+				if(key2Directory.replace(key, current, directoryName)){
+					return true;
+				}
+			}
+		}
+
+		/**The files of all directories, each under the path its directory was finally claimed for.
+		 * Listings made under a path that was later replaced by a smaller one are dropped.
+		 * 
+		 * @return
+		 */
+		private Map<String, ScanManifest.Entry> getPath2Entry(){
+			Map<String, ScanManifest.Entry> path2Entry = new HashMap<String, ScanManifest.Entry>();
+			for(Listing listing : listings){
+				if(listing.directoryName.equals(key2Directory.get(listing.key))){
+					for(ScanManifest.Entry entry : listing.entries){
+						path2Entry.put(entry.getPath(), entry);
+					}
+				}
+			}
+			return path2Entry;
+		}
+
+		/**The candidate files of one directory, listed under one of its paths
+		 * 
+		 */
+		private static class Listing {
+			private final Object key;
+			private final String directoryName;
+			private final List<ScanManifest.Entry> entries = new ArrayList<ScanManifest.Entry>();
+
+			private Listing(Object key, String directoryName){
+				this.key = key;
+				this.directoryName = directoryName;
+			}
+		}
+
+		/**Lists one directory, probes its files and forks a task for every readable subdirectory.
+		 * A directory that is reached again under a smaller path, e.g. through a symbolic link, is listed again under that path.
+		 * A path that runs through a loop of links always has a smaller prefix that reaches the same directory, so loops end.
+		 */
+		private class DirectoryTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			private final Path directory;
+			private final String directoryName;
+			private final Object key;
+
+			private DirectoryTask(Path directory, String directoryName, Object key){
+				this.directory = directory;
+				this.directoryName = directoryName;
+				this.key = key;
+			}
+
+			@Override
+			protected void compute() {
+				List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+				Listing listing = new Listing(key, directoryName);
+				try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+					for(Path child : stream){
+						String path = directoryName + File.separator + child.getFileName();
+						BasicFileAttributes attributes;
+						try{
+							attributes = Files.readAttributes(child, BasicFileAttributes.class);
+						}catch(IOException e){
+							// broken link or removed while scanning
+							continue;
+						}
+						if(attributes.isDirectory()){
+							if(Files.isReadable(child)){
+								Object childKey = getDirectoryKey(child, attributes);
+								if(claim(childKey, path)){
+									subdirectories.add(new DirectoryTask(child, path, childKey));
+								}
+							}
+						}else if(isCandidate(path)){
+							ScanManifest.Entry entry;
+							try{
+								entry = probe(previous, path, attributes);
+							}catch(IOException e){
+								logger.warn("Could not detect type of file " + path + ". Will try again with the next scan.", e);
+								continue;
+							}
+							if(entry != previous.get(path)){
+								probed.incrementAndGet();
+							}
+							listing.entries.add(entry);
+						}
+					}
+				}catch(IOException e){
+					logger.warn("Cannot list directory " + directory, e);
+				}
+				listings.add(listing);
+				invokeAll(subdirectories);
+			}
+		}
+	}
+
+
+}
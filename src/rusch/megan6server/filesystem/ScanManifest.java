@@ -0,0 +1,192 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.filesystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rusch.megan6server.RMAFileHandler.FILETYPE;
+
+
+/**The result of the last filesystem scan: path, size, modification time and detected {@link FILETYPE} of every candidate file.
+ * 
+ * The manifest is written to a tab separated text file so that a restarted server only has to probe files that are new or have changed.
+ * Files that turned out not to be RMA/meganized DAA files are kept as well, with type NONE, so that they are not probed again either.
+ */
+public class ScanManifest {
+
+	private static final String NO_TYPE = "NONE";
+	private static final Logger logger = LoggerFactory.getLogger(ScanManifest.class);
+	private final SortedMap<String, Entry> path2Entry;
+
+
+	/**
+	 * 
+	 * @param path2Entry copied into a map sorted by path, so that all files below a directory are next to each other
+	 */
+	public ScanManifest(Map<String, Entry> path2Entry){
+		this.path2Entry = Collections.unmodifiableSortedMap(new TreeMap<String, Entry>(path2Entry));
+	}
+
+	/**
+	 * 
+	 * @return all entries sorted by path
+	 */
+	public SortedMap<String, Entry> getPath2Entry(){
+		return path2Entry;
+	}
+
+	public Entry get(String path){
+		return path2Entry.get(path);
+	}
+
+	public Collection<Entry> getEntries(){
+		return path2Entry.values();
+	}
+
+	public int size(){
+		return path2Entry.size();
+	}
+
+	/**Load a manifest. Returns an empty manifest if the file does not exist or cannot be read.
+	 * 
+	 * @param manifestFile
+	 * @return
+	 */
+	public static ScanManifest load(File manifestFile){
+		Map<String, Entry> path2Entry = new HashMap<String, Entry>();
+		if(manifestFile.exists()){
+			try(BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)){
+				String aLine;
+				while((aLine = reader.readLine()) != null){
+					if(aLine.startsWith("#") || aLine.length() == 0){
+						continue;
+					}
+					String[] splits = aLine.split("\\t");
+					if(splits.length != 4){
+						continue;
+					}
+					try{
+						FILETYPE type = splits[3].equals(NO_TYPE) ? null : FILETYPE.valueOf(splits[3]);
+						path2Entry.put(splits[0], new Entry(splits[0], Long.parseLong(splits[1]), Long.parseLong(splits[2]), type));
+					}catch(IllegalArgumentException e){
+						// ignore broken line, the file will be probed again
+					}
+				}
+				logger.info(String.format("Loaded scan manifest %s with %d entries", manifestFile, path2Entry.size()));
+			}catch(IOException e){
+				logger.warn("Could not read scan manifest " + manifestFile + ". All files will be probed.", e);
+				path2Entry.clear();
+			}
+		}
+		return new ScanManifest(path2Entry);
+	}
+
+	/**Write the manifest to a temporary file next to the target and move it in place, so that readers never see a half written file.
+	 * 
+	 * @param manifestFile
+	 * @throws IOException
+	 */
+	public void save(File manifestFile) throws IOException{
+		File parent = manifestFile.getAbsoluteFile().getParentFile();
+		if(parent != null && !parent.exists()){
+			parent.mkdirs();
+		}
+		File tmpFile = new File(manifestFile.getAbsolutePath() + ".tmp");
+		try(BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)){
+			writer.write("#Path\tSize\tLastModified\tType\n");
+			for(Entry entry : path2Entry.values()){
+				if(entry.getPath().indexOf('\t') != -1 || entry.getPath().indexOf('\n') != -1){
+					continue;
+				}
+				writer.write(entry.getPath() + "\t" + entry.getSize() + "\t" + entry.getLastModified() + "\t" + (entry.getType() == null ? NO_TYPE : entry.getType().name()) + "\n");
+			}
+		}
+		try{
+			Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(AtomicMoveNotSupportedException e){
+			Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+
+	/**A single file of the manifest
+	 * 
+	 */
+	public static class Entry {
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final FILETYPE type;
+
+		public Entry(String path, long size, long lastModified, FILETYPE type) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.type = type;
+		}
+
+		/**Check if the file still has the size and modification time this entry was created with
+		 * 
+		 * @param size
+		 * @param lastModified
+		 * @return
+		 */
+		public boolean isUpToDate(long size, long lastModified){
+			return this.size == size && this.lastModified == lastModified;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * 
+		 * @return the type or null if the file is not a RMA/meganized DAA file
+		 */
+		public FILETYPE getType() {
+			return type;
+		}
+	}
+
+
+}
@@ -0,0 +1,83 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.find;
+
+import java.io.IOException;
+
+import jloda.util.Single;
+import megan.data.IReadBlock;
+import megan.data.IReadBlockIterator;
+
+
+/**Sets the canceled flag of a find when its iterator is closed, so that the connector stops searching 
+ * when the paginator times out or the client goes away before all hits have been read.
+ */
+public class CancelableReadBlockIterator implements IReadBlockIterator {
+	private final IReadBlockIterator iterator;
+	private final Single<Boolean> canceled;
+
+
+	/**
+	 * 
+	 * @param iterator
+	 * @param canceled the flag that was passed to the connector with the find
+	 */
+	public CancelableReadBlockIterator(IReadBlockIterator iterator, Single<Boolean> canceled){
+		this.iterator = iterator;
+		this.canceled = canceled;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !canceled.get() && iterator.hasNext();
+	}
+
+	@Override
+	public IReadBlock next() {
+		return iterator.next();
+	}
+
+	@Override
+	public void remove() {
+		iterator.remove();
+	}
+
+	@Override
+	public void close() throws IOException {
+		canceled.set(true);
+		iterator.close();
+	}
+
+	@Override
+	public String getStats() {
+		return iterator.getStats();
+	}
+
+	@Override
+	public long getMaximumProgress() {
+		return iterator.getMaximumProgress();
+	}
+
+	@Override
+	public long getProgress() {
+		return iterator.getProgress();
+	}
+
+
+}
@@ -0,0 +1,113 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.find;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import megan.data.FindSelection;
+import megan.data.IReadBlock;
+import rusch.megan6server.pagination.ScanningReadBlockIterator;
+
+
+/**The hits of a find in one file, matched with {@link ParallelFind#matches(IReadBlock, Matcher, FindSelection)}.
+ * 
+ * Used for resumable finds instead of the find of the connector: it counts the reads it has scanned,
+ * so a cursor of the find can be reopened after the last hit without searching the reads before it again.
+ */
+public class FindReadBlockIterator implements ScanningReadBlockIterator {
+	private final ScanningReadBlockIterator reads;
+	private final Matcher matcher;
+	private final FindSelection findSelection;
+	private IReadBlock nextHit;
+	private long nextHitScannedReads;
+	private long scannedReads;
+
+
+	/**
+	 * 
+	 * @param reads the reads to search, closed with the iterator
+	 * @param regEx
+	 * @param findSelection
+	 */
+	public FindReadBlockIterator(ScanningReadBlockIterator reads, String regEx, FindSelection findSelection){
+		this.reads = reads;
+		this.matcher = Pattern.compile(regEx).matcher("");
+		this.findSelection = findSelection;
+		this.scannedReads = reads.getScannedReads();
+	}
+
+	@Override
+	public boolean hasNext() {
+		while(nextHit == null && reads.hasNext()){
+			IReadBlock readBlock = reads.next();
+			if(ParallelFind.matches(readBlock, matcher, findSelection)){
+				nextHit = readBlock;
+				nextHitScannedReads = reads.getScannedReads();
+			}
+		}
+		return nextHit != null;
+	}
+
+	@Override
+	public IReadBlock next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		IReadBlock hit = nextHit;
+		nextHit = null;
+		scannedReads = nextHitScannedReads;
+		return hit;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public long getScannedReads() {
+		return scannedReads;
+	}
+
+	@Override
+	public void close() throws IOException {
+		nextHit = null;
+		reads.close();
+	}
+
+	@Override
+	public String getStats() {
+		return reads.getStats();
+	}
+
+	@Override
+	public long getMaximumProgress() {
+		return reads.getMaximumProgress();
+	}
+
+	@Override
+	public long getProgress() {
+		return reads.getProgress();
+	}
+
+
+}
@@ -0,0 +1,297 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.find;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jloda.util.Single;
+import megan.data.FindSelection;
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
+import megan.data.IReadBlockIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rusch.megan6server.ServerProperties;
+
+
+/**Searches the reads of many files for a regular expression in parallel.
+ * 
+ * The pattern is compiled once. Every file is read by its own task on a shared {@link ForkJoinPool} (find.threads).
+ * The connectors can only read a file from start to end, so a file is not split by position: its reads are handed out
+ * in chunks of find.chunkSize and the chunks are matched in parallel while the file task reads on.
+ * At most find.maxChunks chunks wait to be matched across all searches. A file task that finds no free slot matches
+ * one of its own chunks first or, if it has none, the new chunk itself, so memory does not grow with the number of files read at once.
+ * Hits are reported as soon as they are found, so their order is not the order of the reads in the file.
+ * Setting the canceled flag stops all tasks after their current chunk.
+ */
+public class ParallelFind {
+
+	private static final Logger logger = LoggerFactory.getLogger(ParallelFind.class);
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+	private final Semaphore chunkPermits;
+
+
+	public ParallelFind(){
+		this(ServerProperties.getInt("find.threads", Runtime.getRuntime().availableProcessors()), ServerProperties.getInt("find.chunkSize", 256));
+	}
+
+	public ParallelFind(int threads, int chunkSize){
+		this(threads, chunkSize, ServerProperties.getInt("find.maxChunks", 2 * Math.max(1, threads)));
+	}
+
+	public ParallelFind(int threads, int chunkSize, int maximumChunks){
+		this.pool = new ForkJoinPool(Math.max(1, threads));
+		this.chunkSize = Math.max(1, chunkSize);
+		this.chunkPermits = new Semaphore(Math.max(1, maximumChunks));
+	}
+
+	/**Stop the pool. Searches that are running are canceled.
+	 * 
+	 */
+	public void shutdown(){
+		pool.shutdownNow();
+	}
+
+	/**Opens the reads of a file
+	 *
+	 */
+	public static interface ReadSource {
+		IReadBlockIterator openIterator(String fileId, boolean wantReadText, boolean wantMatches) throws IOException;
+
+		/**Called once per file before its reads are opened
+		 * 
+		 * @param fileId
+		 * @return the classification names the hits of the file are reported with
+		 * @throws IOException
+		 */
+		String[] getClassificationNames(String fileId) throws IOException;
+	}
+
+	/**Receives the hits. Called from several threads at once.
+	 *
+	 */
+	public static interface HitListener {
+		void hit(String fileId, String[] classificationNames, IReadBlock readBlock) throws IOException;
+	}
+
+	/**Search all files and wait until all are done or the search is canceled
+	 * 
+	 * @param fileIds
+	 * @param regEx
+	 * @param findSelection
+	 * @param source
+	 * @param listener
+	 * @param canceled set to true to stop the search, is also set if the listener fails
+	 * @return the files that could not be searched with the reason
+	 */
+	public Map<String, String> find(String[] fileIds, String regEx, FindSelection findSelection, ReadSource source, HitListener listener, Single<Boolean> canceled){
+		Pattern pattern = Pattern.compile(regEx);
+		List<FileTask> tasks = new ArrayList<FileTask>(fileIds.length);
+		for(String fileId : fileIds){
+			tasks.add(new FileTask(fileId, pattern, findSelection, source, listener, canceled));
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		Map<String, String> errors = new LinkedHashMap<String, String>();
+		for(FileTask task : tasks){
+			if(task.error != null){
+				errors.put(task.fileId, task.error);
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * 
+	 * @param readBlock
+	 * @param matcher
+	 * @param findSelection
+	 * @return true if one of the selected texts of the read contains the pattern
+	 */
+	public static boolean matches(IReadBlock readBlock, Matcher matcher, FindSelection findSelection){
+		if(findSelection.useReadName && find(matcher, readBlock.getReadName())){
+			return true;
+		}
+		if(findSelection.useReadHeader && find(matcher, readBlock.getReadHeader())){
+			return true;
+		}
+		if(findSelection.useReadSequence && find(matcher, readBlock.getReadSequence())){
+			return true;
+		}
+		if(findSelection.useMatchText){
+			for(int i = 0; i < readBlock.getNumberOfAvailableMatches(); i++){
+				IMatchBlock matchBlock = readBlock.getMatchBlock(i);
+				if(matchBlock != null && find(matcher, matchBlock.getText())){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean find(Matcher matcher, String text){
+		return text != null && matcher.reset(text).find();
+	}
+
+	private static boolean isCanceled(Single<Boolean> canceled){
+		return Boolean.TRUE.equals(canceled.get());
+	}
+
+
+	/**Reads one file and hands out its reads in chunks
+	 *
+	 */
+	private class FileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final String fileId;
+		private final Pattern pattern;
+		private final FindSelection findSelection;
+		private final ReadSource source;
+		private final HitListener listener;
+		private final Single<Boolean> canceled;
+		private String[] classificationNames;
+		private volatile String error;
+
+		private FileTask(String fileId, Pattern pattern, FindSelection findSelection, ReadSource source, HitListener listener, Single<Boolean> canceled){
+			this.fileId = fileId;
+			this.pattern = pattern;
+			this.findSelection = findSelection;
+			this.source = source;
+			this.listener = listener;
+			this.canceled = canceled;
+		}
+
+		@Override
+		protected void compute() {
+			Deque<ForkJoinTask<?>> chunks = new ArrayDeque<ForkJoinTask<?>>();
+			try{
+				classificationNames = source.getClassificationNames(fileId);
+			}catch(IOException | RuntimeException e){
+				logger.info("Find failed for file " + fileId + ": " + e.getMessage());
+				error = e.getMessage() == null ? e.toString() : e.getMessage();
+				return;
+			}
+			try(IReadBlockIterator iterator = source.openIterator(fileId, findSelection.useReadName || findSelection.useReadHeader || findSelection.useReadSequence, findSelection.useMatchText)){
+				List<IReadBlock> chunk = new ArrayList<IReadBlock>(chunkSize);
+				while(!isCanceled(canceled) && iterator.hasNext()){
+					chunk.add(iterator.next());
+					if(chunk.size() == chunkSize){
+						match(chunk, chunks);
+						chunk = new ArrayList<IReadBlock>(chunkSize);
+					}
+				}
+				if(!chunk.isEmpty()){
+					new ChunkTask(this, chunk, false).invoke();
+				}
+			}catch(IOException | RuntimeException e){
+				logger.info("Find failed for file " + fileId + ": " + e.getMessage());
+				error = e.getMessage() == null ? e.toString() : e.getMessage();
+			}finally{
+				for(ForkJoinTask<?> task : chunks){
+					task.join();
+				}
+			}
+		}
+
+		/**Fork the chunk if a slot is free. Otherwise wait for an own chunk, which frees a slot, or match the chunk here.
+		 * Blocking on the slots would stall the pool when all workers read files.
+		 * 
+		 * @param chunk
+		 * @param chunks the forked chunks of this file
+		 */
+		private void match(List<IReadBlock> chunk, Deque<ForkJoinTask<?>> chunks){
+			while(!chunkPermits.tryAcquire()){
+				if(chunks.isEmpty()){
+					new ChunkTask(this, chunk, false).invoke();
+					return;
+				}
+				chunks.poll().join();
+			}
+			chunks.add(new ChunkTask(this, chunk, true).fork());
+		}
+	}
+
+	/**Matches the reads of one chunk
+	 *
+	 */
+	private class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final FileTask file;
+		private final List<IReadBlock> readBlocks;
+		private final boolean holdsPermit;
+
+		private ChunkTask(FileTask file, List<IReadBlock> readBlocks, boolean holdsPermit){
+			this.file = file;
+			this.readBlocks = readBlocks;
+			this.holdsPermit = holdsPermit;
+		}
+
+		@Override
+		protected void compute() {
+			try{
+				match();
+			}finally{
+				if(holdsPermit){
+					chunkPermits.release();
+				}
+			}
+		}
+
+		private void match() {
+			Matcher matcher = file.pattern.matcher("");
+			for(IReadBlock readBlock : readBlocks){
+				if(isCanceled(file.canceled)){
+					return;
+				}
+				if(matches(readBlock, matcher, file.findSelection)){
+					try {
+						file.listener.hit(file.fileId, file.classificationNames, readBlock);
+					} catch (IOException e) {
+						logger.info("Find stopped: " + e.getMessage());
+						file.canceled.set(true);
+						return;
+					}
+				}
+			}
+		}
+	}
+
+
+}
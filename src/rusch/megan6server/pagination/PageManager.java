@@ -19,13 +19,12 @@
 package rusch.megan6server.pagination;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import megan.data.IReadBlockIterator;
 
@@ -33,59 +32,89 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan6server.ServerProperties;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 
 /**Manages Pages which have been recently loaded or will be loaded soon.
  * 
  * In order to provide old pages we provide a cache with a short time memory
  * 
+ * The registry is safe for concurrent clients: each paginator is only used by one thread at a time (its monitor),
+ * and a page token is retired only after its page has been put into the cache and the next token has been registered,
+ * so a repeated request for the same token always finds either the paginator or the page.
+ * 
+ * Paginators registered with a {@link ReadCursor} hand out cursors as page tokens. If such a token is neither in the cache
+ * nor in the registry, e.g. after the paginator timed out or the server restarted, the query is reopened with the
+ * {@link ReadCursorResolver} and continues after the reads already delivered.
+ * 
  * @author Hans-Joachim Ruscheweyh
  * 1:47:31 PM - Oct 28, 2014
  *
  */
 public class PageManager {
-	private Cache<String, ReadBlockPage> pageCode2readblocks = CacheBuilder.newBuilder().maximumSize(100).build();
-	private Map<String, ReadBlockPaginator> pageCode2Paginators = new HashMap<String, ReadBlockPaginator>();
-	private int blocksize = 50;
-	private long timeout = 60000; //1 min timeout
+	private Cache<String, ReadBlockPage> pageCode2readblocks = CacheBuilder.newBuilder().maximumSize(ServerProperties.getLong("pagination.pageCacheSize", 100)).build();
+	private ConcurrentMap<String, ReadBlockPaginator> pageCode2Paginators = new ConcurrentHashMap<String, ReadBlockPaginator>();
+	private ConcurrentMap<String, ReadBlockPaginator> lastPageCode2Paginators = new ConcurrentHashMap<String, ReadBlockPaginator>(); // the page a paginator handed out last, for retries after it has left the page cache
+	private int blocksize = ServerProperties.getInt("pagination.pageSize", 50);
+	private int maximumBlocksize = ServerProperties.getInt("pagination.maxPageSize", 10000);
+	private long pageBytes = ServerProperties.getLong("pagination.pageBytes", 0);
+	private long timeout = ServerProperties.getLong("pagination.timeout", 60000); //1 min timeout
 	private static final Logger logger = LoggerFactory.getLogger(PageManager.class);
-	private Timer timer = new Timer(); //closing non active rma readers
+	private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("PageManager-%d").build()); //closing non active rma readers
+	private ReadAhead readAhead = new ReadAhead();
+	private final ReadCursorResolver cursorResolver;
 
 
 	public PageManager(){
-		timer.scheduleAtFixedRate(new TimerTask() {
+		this(null);
+	}
+
+	/**
+	 * 
+	 * @param cursorResolver reopens the queries of cursors, null if cursors can not be resumed
+	 */
+	public PageManager(ReadCursorResolver cursorResolver){
+		this.cursorResolver = cursorResolver;
+		scheduler.scheduleAtFixedRate(new Runnable() {
 			@Override
 			public void run() {
-				removeInactivePaginators();
+				try{
+					removeInactivePaginators();
+				}catch(RuntimeException e){
+					logger.error("Problems removing inactive paginators.", e);
+				}
 			}
-		}, 1*60*1000, 1*60*1000); // first time after 5 minutes and then every 5 minutes
+		}, 1, 1, TimeUnit.MINUTES); // first time after 1 minute and then every minute
 	}
 
 	
 	/**Removing inactive paginators. A paginator is inactive after it has not been accessed for 1 minute.
+	 * The last pages of inactive paginators are dropped as well.
 	 * 
 	 */
-	private synchronized void removeInactivePaginators(){
+	private void removeInactivePaginators(){
 		logger.debug("Starting the timertask to remove inactive paginators.");
-		List<String> pages2remove = new ArrayList<String>();
 		for(Entry<String, ReadBlockPaginator> entry : pageCode2Paginators.entrySet()){
-			if(!entry.getValue().isActive()){
-				try {
-					pages2remove.add(entry.getKey());
-					entry.getValue().close();
-					logger.info("Closing a Paginator because being inactive via the timer: " + entry.getValue().toString());
-				} catch (IOException e) {
-					logger.warn("Problems closing a Paginator.", e);
+			ReadBlockPaginator paginator = entry.getValue();
+			synchronized (paginator) {
+				if(!paginator.isActive() && pageCode2Paginators.remove(entry.getKey(), paginator)){
+					try {
+						paginator.close();
+						logger.info("Closing a Paginator because being inactive via the timer: " + paginator.toString());
+					} catch (IOException e) {
+						logger.warn("Problems closing a Paginator.", e);
+					}
 				}
 			}
 		}
-		for(String paginator : pages2remove){
-			ReadBlockPaginator p = pageCode2Paginators.get(paginator);
-			pageCode2Paginators.remove(paginator);
-			p = null;
+		for(Entry<String, ReadBlockPaginator> entry : lastPageCode2Paginators.entrySet()){
+			if(!entry.getValue().isActive()){
+				lastPageCode2Paginators.remove(entry.getKey(), entry.getValue());
+			}
 		}
 	}
 
@@ -95,12 +124,91 @@ public class PageManager {
 	 * @return
 	 */
 	public String registerPaginator(IReadBlockIterator iterator, String[] classnames){
-		ReadBlockPaginator paginator = new ReadBlockPaginator(iterator, timeout, blocksize, classnames);
+		return registerPaginator(iterator, classnames, null, null);
+	}
+
+	/**Register Paginator with the page size requested by the client and return code for the first page
+	 * 
+	 * @param iterator
+	 * @param classnames
+	 * @param pageSize maximum number of reads per page, null for the default. Limited by pagination.maxPageSize
+	 * @param pageBytes approximate size of a page in bytes, null for the default. If larger than 0 the number of reads per page adapts to the size of the reads.
+	 * @return
+	 */
+	public String registerPaginator(IReadBlockIterator iterator, String[] classnames, Integer pageSize, Long pageBytes){
+		return registerPaginator(iterator, classnames, pageSize, pageBytes, null);
+	}
+
+	/**Register Paginator and return code for the first page. If a cursor is given all page tokens are resumable cursors.
+	 * 
+	 * @param iterator
+	 * @param classnames
+	 * @param pageSize
+	 * @param pageBytes
+	 * @param cursor the query of the iterator at position 0 or null
+	 * @return
+	 */
+	public String registerPaginator(IReadBlockIterator iterator, String[] classnames, Integer pageSize, Long pageBytes, ReadCursor cursor){
+		ReadBlockPaginator paginator = createPaginator(iterator, classnames, pageSize, pageBytes, cursor);
 		String initialPageId = paginator.retrieveInitialPageId();
-		pageCode2Paginators.put(initialPageId, paginator);
+		ReadBlockPaginator other = pageCode2Paginators.putIfAbsent(initialPageId, paginator);
+		if(other != null){
+			// tokens carry a random part, a collision can only be the same paginator registered twice
+			closePaginator(paginator);
+		}
 		return initialPageId;
 	}
 
+	private ReadBlockPaginator createPaginator(IReadBlockIterator iterator, String[] classnames, Integer pageSize, Long pageBytes, ReadCursor cursor){
+		int blocksize = pageSize == null ? this.blocksize : Math.max(1, Math.min(pageSize, maximumBlocksize));
+		long maximumPageBytes = pageBytes == null ? this.pageBytes : pageBytes;
+		return new ReadBlockPaginator(iterator, timeout, blocksize, maximumPageBytes, classnames, readAhead, cursor);
+	}
+
+	/**Reopen the query of a cursor after the last read that has been delivered
+	 * 
+	 * @param pageId
+	 * @return the registered paginator or null if the cursor can not be resumed
+	 */
+	private ReadBlockPaginator resumeCursor(String pageId){
+		if(cursorResolver == null || !ReadCursor.isCursor(pageId)){
+			return null;
+		}
+		ReadCursor cursor;
+		try{
+			cursor = ReadCursor.decode(pageId);
+		}catch(IllegalArgumentException e){
+			logger.warn("Cannot resume cursor. " + e.getMessage());
+			return null;
+		}
+		try {
+			IReadBlockIterator iterator = cursorResolver.openIterator(cursor);
+			if(iterator == null){
+				logger.info("Not resuming cursor because the file has changed or is gone: " + cursor.getFileId());
+				return null;
+			}
+			ReadBlockPaginator paginator = createPaginator(iterator, cursorResolver.getClassificationNames(cursor), cursor.getPageSize(), cursor.getPageBytes(), cursor);
+			ReadBlockPaginator other = pageCode2Paginators.putIfAbsent(pageId, paginator);
+			if(other != null){
+				closePaginator(paginator);
+				return other;
+			}
+			logger.info("Resumed cursor of file " + cursor.getFileId() + " at read " + cursor.getPosition() + " after uid " + cursor.getLastReadUid());
+			return paginator;
+		} catch (IOException e) {
+			logger.warn("Problems resuming a cursor.", e);
+			return null;
+		}
+	}
+
+	private void closePaginator(ReadBlockPaginator paginator){
+		try {
+			paginator.close();
+		} catch (IOException e) {
+			logger.warn("Problems closing a Paginator.", e);
+		}
+	}
+
 
 	/**Retrieve next {@link ReadBlockPage} with pageId. Might happen that it is not present in the cache anymore. Then its not accessible anymore.
 	 * 
@@ -113,30 +221,90 @@ public class PageManager {
 		if(pageId == null){
 			return new ReadBlockPage();
 		}
-		ReadBlockPage page = pageCode2readblocks.getIfPresent(pageId);
-		if(page == null){
-			ReadBlockPaginator paginator = pageCode2Paginators.get(pageId);
+		ReadBlockPage page = getCachedPage(pageId);
+		if(page != null){
+			return page;
+		}
+		ReadBlockPaginator paginator = pageCode2Paginators.get(pageId);
+		if(paginator == null){
+			page = getCachedPage(pageId);
+			if(page != null){
+				return page;
+			}
+			paginator = resumeCursor(pageId);
 			if(paginator == null){
 				return new ReadBlockPage();
 			}
-			synchronized (paginator) {
-				page = paginator.getNextPage();
-				pageCode2Paginators.remove(pageId);
-				pageCode2readblocks.put(pageId, page);
-				if(page.getNextPageToken() != null)
-					pageCode2Paginators.put(page.getNextPageToken(), paginator);
-				else{
-					try {
-						paginator.close();
-					} catch (IOException e) {
-						logger.warn("Problems closing a Paginator.", e);
-					}
+		}
+		synchronized (paginator) {
+			// another request for the same page might have been served while waiting
+			page = getCachedPage(pageId);
+			if(page != null){
+				return page;
+			}
+			if(pageCode2Paginators.get(pageId) != paginator){
+				return new ReadBlockPage();
+			}
+			page = paginator.getNextPage();
+			pageCode2readblocks.put(pageId, page);
+			String previousPageId = paginator.getLastPageId();
+			paginator.setLastPage(pageId, page);
+			lastPageCode2Paginators.put(pageId, paginator);
+			if(previousPageId != null){
+				lastPageCode2Paginators.remove(previousPageId, paginator);
+			}
+			if(page.getNextPageToken() != null){
+				ReadBlockPaginator other = pageCode2Paginators.putIfAbsent(page.getNextPageToken(), paginator);
+				pageCode2Paginators.remove(pageId, paginator);
+				if(other != null){
+					// another client resumed the same cursor and is already there
+					closePaginator(paginator);
 				}
+			}else{
+				pageCode2Paginators.remove(pageId, paginator);
+				closePaginator(paginator);
 			}
 		}
 		return page;
 	}
 
+	/**The page from the page cache or, if it has been evicted, from the paginator that handed it out last
+	 * 
+	 * @param pageId
+	 * @return the page or null if it is not known
+	 */
+	private ReadBlockPage getCachedPage(String pageId){
+		ReadBlockPage page = pageCode2readblocks.getIfPresent(pageId);
+		if(page != null){
+			return page;
+		}
+		ReadBlockPaginator paginator = lastPageCode2Paginators.get(pageId);
+		return paginator == null ? null : paginator.getLastPage(pageId);
+	}
+
+	/**Stop the timer and the read-ahead threads and close all paginators
+	 * 
+	 */
+	public void shutdown(){
+		scheduler.shutdownNow();
+		readAhead.shutdown();
+		for(Entry<String, ReadBlockPaginator> entry : pageCode2Paginators.entrySet()){
+			if(pageCode2Paginators.remove(entry.getKey(), entry.getValue())){
+				closePaginator(entry.getValue());
+			}
+		}
+		lastPageCode2Paginators.clear();
+		pageCode2readblocks.invalidateAll();
+	}
+
+	/**
+	 * 
+	 * @return number of open paginators
+	 */
+	public int getNumberOfPaginators(){
+		return pageCode2Paginators.size();
+	}
+
 
 
 
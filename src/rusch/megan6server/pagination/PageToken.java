@@ -0,0 +1,45 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+
+
+/**Creates the tokens that identify pages of a {@link ReadBlockPaginator}.
+ * 
+ * A token is 128 random bits in URL safe base64 (22 characters), so tokens of concurrent cursors do not collide
+ * and cannot be guessed from one another.
+ */
+public class PageToken {
+
+	private static final SecureRandom random = new SecureRandom();
+	private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+	private PageToken(){
+	}
+
+	public static String create(){
+		byte[] bytes = new byte[16];
+		random.nextBytes(bytes);
+		return encoder.encodeToString(bytes);
+	}
+
+
+}
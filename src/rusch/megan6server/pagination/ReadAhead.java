@@ -0,0 +1,121 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rusch.megan6server.ServerProperties;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**Shared by all {@link ReadBlockPaginator}s to decode the next pages while clients are busy with the current one.
+ * 
+ * Read-ahead runs on a small bounded pool (pagination.prefetchThreads). All pages that have been decoded ahead but not handed out yet
+ * count against one memory budget (pagination.prefetchMaxBytes). Every read is reserved with its estimated size before it is added to a page,
+ * so the budget is not exceeded. If the pool is busy or the budget is used up, pages or the rest of a page are decoded on request as before.
+ */
+public class ReadAhead {
+
+	private final ExecutorService executor;
+	private final int pages;
+	private final long maximumBytes;
+	private final AtomicLong usedBytes = new AtomicLong();
+
+
+	public ReadAhead(){
+		this(ServerProperties.getInt("pagination.prefetchPages", 1), ServerProperties.getInt("pagination.prefetchThreads", 4), ServerProperties.getLong("pagination.prefetchMaxBytes", 256L * 1024 * 1024));
+	}
+
+	/**
+	 * 
+	 * @param pages number of pages to decode ahead per paginator
+	 * @param threads
+	 * @param maximumBytes budget for all pages that have been decoded ahead
+	 */
+	public ReadAhead(int pages, int threads, long maximumBytes){
+		this.pages = pages;
+		this.maximumBytes = maximumBytes;
+		int poolSize = Math.max(1, threads);
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1000),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ReadAhead-%d").build());
+	}
+
+	/**
+	 * 
+	 * @return number of pages to decode ahead, 0 if read-ahead is switched off
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	/**
+	 * 
+	 * @param task
+	 * @return false if the pool does not accept more tasks
+	 */
+	boolean submit(Runnable task){
+		try{
+			executor.execute(task);
+			return true;
+		}catch(RejectedExecutionException e){
+			return false;
+		}
+	}
+
+	/**Reserve memory for a read that is decoded ahead
+	 * 
+	 * @param bytes
+	 * @return false if this would exceed the budget
+	 */
+	boolean reserve(long bytes){
+		while(true){
+			long used = usedBytes.get();
+			if(used + bytes > maximumBytes){
+				return false;
+			}
+			if(usedBytes.compareAndSet(used, used + bytes)){
+				return true;
+			}
+		}
+	}
+
+	/**Give back the memory of the reads of a page that has been handed out or dropped
+	 * 
+	 * @param bytes
+	 */
+	void release(long bytes){
+		usedBytes.addAndGet(-bytes);
+	}
+
+	public long getUsedBytes(){
+		return usedBytes.get();
+	}
+
+	public void shutdown(){
+		executor.shutdownNow();
+	}
+
+
+}
@@ -0,0 +1,116 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import megan.data.IReadBlock;
+import megan.data.IReadBlockGetter;
+
+
+/**Iterates over all reads of a file with a {@link IReadBlockGetter}, optionally starting after a given read.
+ * 
+ * Resuming a cursor with this iterator costs one seek to the uid of the last read delivered instead of reading every read before it.
+ * It relies on the contract of the getter that getReadBlock(-1) returns the read following the one returned last,
+ * starting with the first read of the file for a new getter. This is only known to hold for RMA6 files,
+ * the other file types are continued with a {@link UidReadBlockIterator}.
+ */
+public class ReadBlockGetterIterator implements ScanningReadBlockIterator {
+	private final IReadBlockGetter getter;
+	private final long lastReadUid;
+	private final long numberOfReads;
+	private long scannedReads;
+	private boolean isPositioned = false;
+	private boolean isClosed = false;
+
+
+	/**
+	 * 
+	 * @param getter a new getter of the file, it is closed with the iterator
+	 * @param lastReadUid the read to start after or -1 to start with the first read
+	 * @param scannedReads number of reads up to and including lastReadUid
+	 */
+	public ReadBlockGetterIterator(IReadBlockGetter getter, long lastReadUid, long scannedReads){
+		this.getter = getter;
+		this.lastReadUid = lastReadUid;
+		this.scannedReads = lastReadUid < 0 ? 0 : scannedReads;
+		this.numberOfReads = getter.getCount();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !isClosed && scannedReads < numberOfReads;
+	}
+
+	@Override
+	public IReadBlock next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		try{
+			if(!isPositioned){
+				isPositioned = true;
+				if(lastReadUid >= 0){
+					getter.getReadBlock(lastReadUid);
+				}
+			}
+			IReadBlock readBlock = getter.getReadBlock(-1);
+			scannedReads++;
+			return readBlock;
+		}catch(IOException e){
+			throw new IllegalStateException("Cannot read the read after " + lastReadUid, e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public long getScannedReads() {
+		return scannedReads;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(!isClosed){
+			isClosed = true;
+			getter.close();
+		}
+	}
+
+	@Override
+	public String getStats() {
+		return "Reads: " + scannedReads + " of " + numberOfReads;
+	}
+
+	@Override
+	public long getMaximumProgress() {
+		return numberOfReads;
+	}
+
+	@Override
+	public long getProgress() {
+		return scannedReads;
+	}
+
+
+}
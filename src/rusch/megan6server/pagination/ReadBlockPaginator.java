@@ -18,17 +18,35 @@
  */
 package rusch.megan6server.pagination;
 
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
 import megan.data.IReadBlockIterator;
-import rusch.megan5client.ReadBlockServer;
 import rusch.megan5client.connector.ReadBlockPage;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**A paginator that retrieves pages from an readblockiterator
  * 
+ * With {@link ReadAhead} the next pages are decoded in the background as soon as a page has been handed out.
+ * The iterator is only ever used by one thread at a time, guarded by iteratorLock. Every read decoded ahead reserves its estimated size
+ * in the budget of the {@link ReadAhead} before it is added to the page. If the budget is used up, the page is left unfinished
+ * and completed when it is requested, so the budget is never exceeded and pages do not depend on it.
+ * 
+ * With a {@link ReadCursor} the page tokens are cursors at the position of the page instead of random tokens.
+ * They record the uid of the last read of the page, so that the query can be reopened right after it.
+ * 
+ * The reads of a page are collected as they come out of the iterator into a buffer that is kept for the next pages and grown as needed.
+ * Only one page is collected at a time, an unfinished page is always continued before a new one is started.
+ * A complete page gets a copy of exactly its reads, since pages are cached and may still be written when the next one is collected.
+ * The {@link ReadPage} writes them straight to JSON, no ReadBlockServer is created for them.
  * 
  * @author Hans-Joachim Ruscheweyh
  * 10:20:41 AM - Oct 29, 2014
@@ -39,22 +57,71 @@ public class ReadBlockPaginator {
 	private long lastAccessed;
 	private long timeout;
 	private int blockSize;
-	private boolean isClosed = false;
+	private volatile boolean isClosed = false;
 	private long totalNumberOfReads = 0;
 	private long previouslySeenReads = 0;
 	private String[] classnames;
+	private long maximumPageBytes;
+	private volatile double averageReadBytes = 0;
+	private final ReadAhead readAhead;
+	private final Object iteratorLock = new Object();
+	/**the reads of the page that is collected, guarded by iteratorLock*/
+	private IReadBlock[] buffer;
+	private final Deque<Block> decodedBlocks = new ArrayDeque<Block>();
+	private boolean isReadingAhead = false;
+	private boolean isExhausted = false;
+	private final ReadCursor cursor;
+	private long lastReadUid = -1;
+	private long scannedReads = 0;
+	private volatile SimpleImmutableEntry<String, ReadBlockPage> lastPage;
+	private static final Logger logger = LoggerFactory.getLogger(ReadBlockPaginator.class);
+	private static final int INITIAL_PAGE_CAPACITY_LIMIT = 4096;
 
 	public ReadBlockPaginator(IReadBlockIterator it, long timeout, int blockSize, String[] classnames){
+		this(it, timeout, blockSize, 0, classnames, null);
+	}
+
+	/**
+	 * 
+	 * @param it
+	 * @param timeout
+	 * @param blockSize maximum number of reads per page
+	 * @param maximumPageBytes if larger than 0 pages are cut when they would exceed this number of bytes in JSON
+	 * @param classnames
+	 * @param readAhead null to decode pages only on request
+	 */
+	public ReadBlockPaginator(IReadBlockIterator it, long timeout, int blockSize, long maximumPageBytes, String[] classnames, ReadAhead readAhead){
+		this(it, timeout, blockSize, maximumPageBytes, classnames, readAhead, null);
+	}
+
+	/**
+	 * 
+	 * @param it
+	 * @param timeout
+	 * @param blockSize maximum number of reads per page
+	 * @param maximumPageBytes if larger than 0 pages are cut when they would exceed this number of bytes in JSON
+	 * @param classnames
+	 * @param readAhead null to decode pages only on request
+	 * @param cursor the query of the iterator to create resumable page tokens or null for random page tokens.
+	 * If the cursor is not at the start the iterator must have been opened after its last read.
+	 */
+	public ReadBlockPaginator(IReadBlockIterator it, long timeout, int blockSize, long maximumPageBytes, String[] classnames, ReadAhead readAhead, ReadCursor cursor){
 		iterator = it;
 		lastAccessed = System.currentTimeMillis();
 		this.timeout = timeout;
 		this.blockSize = blockSize;
+		this.maximumPageBytes = maximumPageBytes;
 		this.totalNumberOfReads = it.getMaximumProgress();
 		this.classnames = classnames;
+		this.readAhead = (readAhead == null || readAhead.getPages() <= 0) ? null : readAhead;
+		this.cursor = cursor;
+		if(cursor != null){
+			this.previouslySeenReads = cursor.getPosition();
+			this.lastReadUid = cursor.getLastReadUid();
+			this.scannedReads = cursor.getScannedReads();
+		}
 	}
 
-
-
 	/**Check if data has been retrieve in the last n seconds. n is the specified as timeout in the constructor.
 	 * 
 	 * @return
@@ -63,14 +130,30 @@ public class ReadBlockPaginator {
 		return (System.currentTimeMillis() - lastAccessed) > timeout ? false : true;
 	}
 
+	/**Close the iterator. Waits for a page that is being decoded in the background and drops all pages decoded ahead.
+	 * 
+	 * @throws IOException
+	 */
 	public void close() throws IOException{
-		iterator.close();
-		iterator = null;
 		isClosed = true;
+		synchronized (iteratorLock) {
+			if(iterator != null){
+				iterator.close();
+				iterator = null;
+			}
+		}
+		synchronized (decodedBlocks) {
+			for(Block block : decodedBlocks){
+				readAhead.release(block.reservedBytes);
+			}
+			decodedBlocks.clear();
+			decodedBlocks.notifyAll();
+		}
 	}
 
 
-	/**Retrieve next page
+	/**Retrieve next page. A page ends after blockSize reads or, if a byte budget is set, when the next read
+	 * is expected to exceed it. The expectation is a moving average of the estimated size of the recent reads.
 	 * 
 	 * @return
 	 */
@@ -78,32 +161,317 @@ public class ReadBlockPaginator {
 		if(isClosed){
 			return new ReadBlockPage();
 		}else{
-			List<ReadBlockServer> rbs = new ArrayList<ReadBlockServer>();
-            String code = String.valueOf(Math.abs((rbs.hashCode() + System.currentTimeMillis() + "MySaltIsMyNameMEGANServer").hashCode()));
-			int pos = 0;
-			while(iterator.hasNext()){
-				pos++;
-				rbs.add(new ReadBlockServer(iterator.next(), this.classnames));
-				if(rbs.size() == blockSize){
-					break;
+			Block block = takeDecodedBlock();
+			if(block == null || !block.complete){
+				synchronized (iteratorLock) {
+					if(iterator == null){
+						return new ReadBlockPage();
+					}
+					block = decodeBlock(block, false);
 				}
 			}
-			if(rbs.size() == 0 || rbs.size() < blockSize){
-				code = null;
-			}
+			int pos = block.size;
 			previouslySeenReads = previouslySeenReads + pos;
+			if(pos != 0){
+				lastReadUid = block.lastReadUid;
+				scannedReads = block.scannedReads < 0 ? scannedReads + pos : block.scannedReads;
+			}
+			String code = null;
+			if(pos != 0 && block.hasMore){
+				code = createToken();
+			}
 			lastAccessed = System.currentTimeMillis();
-			return new ReadBlockPage(code, null, rbs.toArray(new ReadBlockServer[0]),totalNumberOfReads, (previouslySeenReads - pos));	
+			if(code != null){
+				startReadAhead();
+			}
+			return new ReadPage(code, block.readBlocks, block.size, classnames, totalNumberOfReads, (previouslySeenReads - pos));
+		}
+	}
+
+	/**Take the next page that has been decoded ahead. If it is still being decoded wait for it.
+	 * 
+	 * @return the block or null if none has been decoded ahead
+	 */
+	private Block takeDecodedBlock(){
+		if(readAhead == null){
+			return null;
+		}
+		synchronized (decodedBlocks) {
+			while(decodedBlocks.isEmpty() && isReadingAhead && !isClosed){
+				try {
+					decodedBlocks.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			Block block = decodedBlocks.poll();
+			if(block != null){
+				readAhead.release(block.reservedBytes);
+				block.reservedBytes = 0;
+			}
+			return block;
+		}
+	}
+
+	/**Start decoding the next pages in the background unless this is already running or enough pages are waiting
+	 * 
+	 */
+	private void startReadAhead(){
+		if(readAhead == null){
+			return;
+		}
+		synchronized (decodedBlocks) {
+			if(isReadingAhead || isExhausted || isClosed || (decodedBlocks.size() >= readAhead.getPages() && decodedBlocks.peekLast().complete)){
+				return;
+			}
+			isReadingAhead = true;
+		}
+		boolean submitted = readAhead.submit(new Runnable() {
+			@Override
+			public void run() {
+				readAhead();
+			}
+		});
+		if(!submitted){
+			stopReadAhead();
+		}
+	}
+
+	/**Decode pages until enough are waiting, the iterator is done or the memory budget is used up.
+	 * A page that ran out of budget is queued unfinished and ends the read-ahead. The next read-ahead continues it
+	 * before it starts a new page, so that the reads stay in order.
+	 * 
+	 */
+	private void readAhead(){
+		try{
+			while(true){
+				Block unfinished = null;
+				synchronized (decodedBlocks) {
+					if(isExhausted || isClosed){
+						return;
+					}
+					if(!decodedBlocks.isEmpty() && !decodedBlocks.peekLast().complete){
+						unfinished = decodedBlocks.pollLast();
+					}else if(decodedBlocks.size() >= readAhead.getPages()){
+						return;
+					}
+				}
+				Block block;
+				synchronized (iteratorLock) {
+					if(iterator == null){
+						if(unfinished != null){
+							readAhead.release(unfinished.reservedBytes);
+						}
+						return;
+					}
+					block = decodeBlock(unfinished, true);
+				}
+				synchronized (decodedBlocks) {
+					if(isClosed){
+						readAhead.release(block.reservedBytes);
+						return;
+					}
+					decodedBlocks.add(block);
+					decodedBlocks.notifyAll();
+				}
+				if(!block.complete){
+					return;
+				}
+			}
+		}catch(RuntimeException e){
+			logger.warn("Problems reading ahead. The next page will be read on request.", e);
+		}finally{
+			stopReadAhead();
+		}
+	}
+
+	private void stopReadAhead(){
+		synchronized (decodedBlocks) {
+			isReadingAhead = false;
+			decodedBlocks.notifyAll();
+		}
+	}
+
+	/**Decode the reads of the next page or finish a page that was left unfinished. Must be called with iteratorLock held.
+	 * 
+	 * A page is complete after blockSize reads, when the byte budget of the page is reached or when the iterator is done.
+	 * Only in the last case the page has no successor. A full page does not look ahead whether there are more reads,
+	 * if there are none the next request gets an empty page.
+	 * 
+	 * @param block the unfinished page or null for a new one
+	 * @param reserve reserve the estimated size of every read in the budget of the {@link ReadAhead}.
+	 * The page is left unfinished if a read does not fit.
+	 * @return
+	 */
+	private Block decodeBlock(Block block, boolean reserve){
+		if(block == null){
+			if(buffer == null){
+				buffer = new IReadBlock[expectedPageSize()];
+			}
+			block = new Block(buffer);
 		}
+		boolean estimate = maximumPageBytes > 0 || readAhead != null;
+		while(true){
+			IReadBlock readBlock = block.pending;
+			long readBytes = block.pendingBytes;
+			block.pending = null;
+			if(readBlock == null){
+				if(!iterator.hasNext()){
+					synchronized (decodedBlocks) {
+						isExhausted = true;
+					}
+					block.hasMore = false;
+					break;
+				}
+				readBlock = iterator.next();
+				if(iterator instanceof ScanningReadBlockIterator){
+					block.scannedReads = ((ScanningReadBlockIterator) iterator).getScannedReads();
+				}
+				if(estimate){
+					readBytes = estimateBytes(readBlock);
+					averageReadBytes = averageReadBytes == 0 ? readBytes : 0.9 * averageReadBytes + 0.1 * readBytes;
+				}
+			}
+			if(reserve){
+				if(!readAhead.reserve(readBytes)){
+					block.pending = readBlock;
+					block.pendingBytes = readBytes;
+					return block;
+				}
+				block.reservedBytes += readBytes;
+			}
+			block.add(readBlock, readBytes, blockSize);
+			if(block.size == blockSize){
+				break;
+			}
+			if(maximumPageBytes > 0 && block.bytes + averageReadBytes > maximumPageBytes){
+				break;
+			}
+		}
+		buffer = block.readBlocks;
+		block.readBlocks = Arrays.copyOf(buffer, block.size);
+		Arrays.fill(buffer, 0, block.size, null);
+		block.complete = true;
+		return block;
+	}
+
+	/**Number of reads the first page is expected to hold. Bounded by the byte budget once the average read size is known,
+	 * so that small pages of large reads do not allocate a buffer of blockSize.
+	 * 
+	 * @return
+	 */
+	private int expectedPageSize(){
+		long expected = blockSize > 0 ? blockSize : INITIAL_PAGE_CAPACITY_LIMIT;
+		if(maximumPageBytes > 0 && averageReadBytes > 0){
+			expected = Math.min(expected, (long) (maximumPageBytes / averageReadBytes) + 1);
+		}
+		return (int) Math.max(1, Math.min(expected, INITIAL_PAGE_CAPACITY_LIMIT));
 	}
 
 
+	/**Rough size of the read in JSON. Counts the text of the read and its matches plus a fixed amount for the numbers and field names.
+	 * 
+	 * @param readBlock
+	 * @return
+	 */
+	private long estimateBytes(IReadBlock readBlock){
+		long bytes = 200;
+		long matchBytes = 150 + 24 * classnames.length;
+		if(readBlock.getReadHeader() != null){
+			bytes += readBlock.getReadHeader().length();
+		}
+		if(readBlock.getReadSequence() != null){
+			bytes += readBlock.getReadSequence().length();
+		}
+		for(int i = 0; i < readBlock.getNumberOfAvailableMatches(); i++){
+			IMatchBlock matchBlock = readBlock.getMatchBlock(i);
+			bytes += matchBytes;
+			if(matchBlock.getText() != null){
+				bytes += matchBlock.getText().length();
+			}
+		}
+		return bytes;
+	}
+
+
+	/**Remember the page that has been handed out last so that a retry of its token can be answered after it has left the page cache
+	 * 
+	 * @param pageId
+	 * @param page
+	 */
+	public void setLastPage(String pageId, ReadBlockPage page){
+		lastPage = new SimpleImmutableEntry<String, ReadBlockPage>(pageId, page);
+	}
+
+	/**
+	 * 
+	 * @param pageId
+	 * @return the page handed out last if it has this id, otherwise null
+	 */
+	public ReadBlockPage getLastPage(String pageId){
+		SimpleImmutableEntry<String, ReadBlockPage> lastPage = this.lastPage;
+		return lastPage != null && lastPage.getKey().equals(pageId) ? lastPage.getValue() : null;
+	}
+
+	/**
+	 * 
+	 * @return the id of the page handed out last or null
+	 */
+	public String getLastPageId(){
+		SimpleImmutableEntry<String, ReadBlockPage> lastPage = this.lastPage;
+		return lastPage == null ? null : lastPage.getKey();
+	}
+
 	/**Retrieve initial PageId
 	 * 
 	 * @return
 	 */
 	public String retrieveInitialPageId() {
-		return String.valueOf(iterator.hashCode());
+		return createToken();
+	}
+
+	private String createToken(){
+		return cursor == null ? PageToken.create() : cursor.atPosition(previouslySeenReads, lastReadUid, scannedReads).encode();
+	}
+
+
+	/**The reads of one page. Only used by the thread holding iteratorLock until it is complete.
+	 * 
+	 */
+	private static class Block {
+		private IReadBlock[] readBlocks;
+		private int size = 0;
+		/**estimated size of the reads in JSON*/
+		private long bytes = 0;
+		/**bytes reserved in the budget of the {@link ReadAhead}*/
+		private long reservedBytes = 0;
+		private boolean hasMore = true;
+		private boolean complete = false;
+		/**uid of the last read of the page*/
+		private long lastReadUid = -1;
+		/**reads of the file scanned up to the last read or -1 if the iterator does not count them*/
+		private long scannedReads = -1;
+		/**a read taken from the iterator that did not fit into the budget of the {@link ReadAhead}*/
+		private IReadBlock pending;
+		private long pendingBytes;
+
+		/**
+		 * 
+		 * @param readBlocks the buffer of the paginator to collect the reads in, grown as needed
+		 */
+		private Block(IReadBlock[] readBlocks){
+			this.readBlocks = readBlocks;
+		}
+
+		private void add(IReadBlock readBlock, long readBytes, int blockSize){
+			if(size == readBlocks.length){
+				readBlocks = Arrays.copyOf(readBlocks, blockSize > size ? (int) Math.min(blockSize, 2L * size) : 2 * size);
+			}
+			readBlocks[size++] = readBlock;
+			bytes += readBytes;
+			lastReadUid = readBlock.getUId();
+		}
 	}
 
 
@@ -0,0 +1,335 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import rusch.megan6server.ServerProperties;
+import rusch.megan6server.cache.FileVersion;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+
+/**A page token that points to a query kept by the server and a position in its result, instead of pointing to a paginator in memory.
+ * 
+ * The query, that is the file, the filters and the paging options, is kept server-side under a random nonce. The token only carries
+ * the nonce and the position: the number of reads delivered, the uid of the last read delivered and the number of reads scanned.
+ * Any server thread can reopen the query from the cursor and continue after the reads that have already been delivered,
+ * without reading and dropping everything before them. The query records the size and modification time of the file,
+ * a cursor of a file that has changed since is not resumed.
+ * 
+ * Queries are kept for pagination.cursorExpireAfterAccess seconds after their last use, at most pagination.cursorMaximumSize of them,
+ * and only in the process that created them. Every query gets its own nonce, so two clients sending the same query get different cursors
+ * and their own paginators. Tokens are signed with an HMAC over a random secret, tokens that were changed or made up by a client are rejected.
+ */
+public class ReadCursor {
+
+	public static enum TYPE {ALL_READS, READS, READS_FOR_CLASS_IDS, FIND};
+
+	private static final String PREFIX = "c.";
+	private static final byte FORMAT_VERSION = 3;
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final int MAC_BYTES = 16;
+	private static final SecureRandom random = new SecureRandom();
+	private static final SecretKeySpec secret = createSecret();
+	private static final Cache<Long, Query> nonce2Query = CacheBuilder.newBuilder()
+			.maximumSize(ServerProperties.getLong("pagination.cursorMaximumSize", 100000))
+			.expireAfterAccess(ServerProperties.getLong("pagination.cursorExpireAfterAccess", 86400), TimeUnit.SECONDS)
+			.build();
+
+	private final Query query;
+	private final long position;
+	private final long lastReadUid;
+	private final long scannedReads;
+
+
+	private ReadCursor(Query query, long position, long lastReadUid, long scannedReads){
+		this.query = query;
+		this.position = position;
+		this.lastReadUid = lastReadUid;
+		this.scannedReads = scannedReads;
+	}
+
+	/**Create the query under a new nonce and keep it
+	 * 
+	 */
+	private static ReadCursor create(TYPE type, FileVersion fileVersion, float minScore, float maxExpected, String[] dataSelection, String classification, int[] classIds,
+			String regEx, String[] findSelection, Integer pageSize, Long pageBytes){
+		while(true){
+			Query query = new Query(type, random.nextLong(), fileVersion, minScore, maxExpected, dataSelection, classification, classIds, regEx, findSelection, pageSize, pageBytes);
+			if(nonce2Query.asMap().putIfAbsent(query.nonce, query) == null){
+				return new ReadCursor(query, 0, -1, 0);
+			}
+		}
+	}
+
+	public static ReadCursor allReads(FileVersion fileVersion, float minScore, float maxExpected, String[] dataSelection, Integer pageSize, Long pageBytes){
+		return create(TYPE.ALL_READS, fileVersion, minScore, maxExpected, dataSelection, null, null, null, null, pageSize, pageBytes);
+	}
+
+	public static ReadCursor reads(FileVersion fileVersion, float minScore, float maxExpected, String[] dataSelection, String classification, int classId, Integer pageSize, Long pageBytes){
+		return create(TYPE.READS, fileVersion, minScore, maxExpected, dataSelection, classification, new int[]{classId}, null, null, pageSize, pageBytes);
+	}
+
+	public static ReadCursor readsForClassIds(FileVersion fileVersion, float minScore, float maxExpected, String[] dataSelection, String classification, int[] classIds, Integer pageSize, Long pageBytes){
+		return create(TYPE.READS_FOR_CLASS_IDS, fileVersion, minScore, maxExpected, dataSelection, classification, classIds, null, null, pageSize, pageBytes);
+	}
+
+	public static ReadCursor find(FileVersion fileVersion, String regEx, String[] findSelection, Integer pageSize, Long pageBytes){
+		return create(TYPE.FIND, fileVersion, 0, 0, null, null, null, regEx, findSelection, pageSize, pageBytes);
+	}
+
+	/**
+	 * 
+	 * @param position number of reads that have been delivered
+	 * @param lastReadUid uid of the last read delivered
+	 * @param scannedReads number of reads of the file that the query has passed up to and including the last read delivered.
+	 * Larger than position for queries that drop reads, such as find.
+	 * @return a copy of this cursor at the given position
+	 */
+	public ReadCursor atPosition(long position, long lastReadUid, long scannedReads){
+		return new ReadCursor(query, position, lastReadUid, scannedReads);
+	}
+
+	/**Check if a page token is a cursor
+	 * 
+	 * @param token
+	 * @return
+	 */
+	public static boolean isCursor(String token){
+		return token != null && token.startsWith(PREFIX);
+	}
+
+	/**Encode and sign the nonce of the query and the position as page token
+	 * 
+	 * @return
+	 */
+	public String encode(){
+		try{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FORMAT_VERSION);
+			out.writeLong(query.nonce);
+			out.writeLong(position);
+			out.writeLong(lastReadUid);
+			out.writeLong(scannedReads);
+			out.write(sign(bytes.toByteArray()));
+			out.close();
+			return PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+		}catch(IOException e){
+			throw new IllegalStateException("Cannot encode cursor", e);
+		}
+	}
+
+	/**Decode a page token, check its signature and look up its query
+	 * 
+	 * @param token
+	 * @return
+	 * @throws IllegalArgumentException if the token is not a valid cursor, was not signed by this server or its query has expired
+	 */
+	public static ReadCursor decode(String token){
+		if(!isCursor(token)){
+			throw new IllegalArgumentException("Not a cursor: " + token);
+		}
+		try{
+			byte[] bytes = Base64.getUrlDecoder().decode(token.substring(PREFIX.length()));
+			if(bytes.length <= MAC_BYTES){
+				throw new IllegalArgumentException("Not a valid cursor: " + token);
+			}
+			byte[] payload = Arrays.copyOf(bytes, bytes.length - MAC_BYTES);
+			if(!MessageDigest.isEqual(sign(payload), Arrays.copyOfRange(bytes, payload.length, bytes.length))){
+				throw new IllegalArgumentException("Cursor has an invalid signature: " + token);
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+			if(in.readByte() != FORMAT_VERSION){
+				throw new IllegalArgumentException("Unknown cursor format: " + token);
+			}
+			long nonce = in.readLong();
+			long position = in.readLong();
+			long lastReadUid = in.readLong();
+			long scannedReads = in.readLong();
+			Query query = nonce2Query.getIfPresent(nonce);
+			if(query == null){
+				throw new IllegalArgumentException("The query of the cursor has expired: " + token);
+			}
+			return new ReadCursor(query, position, lastReadUid, scannedReads);
+		}catch(IOException | RuntimeException e){
+			if(e instanceof IllegalArgumentException){
+				throw (IllegalArgumentException) e;
+			}
+			throw new IllegalArgumentException("Not a valid cursor: " + token, e);
+		}
+	}
+
+	/**The first MAC_BYTES of the HMAC of the payload
+	 * 
+	 * @param payload
+	 * @return
+	 */
+	private static byte[] sign(byte[] payload){
+		try{
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(secret);
+			return Arrays.copyOf(mac.doFinal(payload), MAC_BYTES);
+		}catch(GeneralSecurityException e){
+			throw new IllegalStateException("Cannot sign cursor", e);
+		}
+	}
+
+	private static SecretKeySpec createSecret(){
+		byte[] key = new byte[32];
+		random.nextBytes(key);
+		return new SecretKeySpec(key, MAC_ALGORITHM);
+	}
+
+	public TYPE getType() {
+		return query.type;
+	}
+
+	public int getFileId() {
+		return query.fileVersion.getFileId();
+	}
+
+	/**
+	 * 
+	 * @return size and modification time of the file when the cursor was created
+	 */
+	public FileVersion getFileVersion() {
+		return query.fileVersion;
+	}
+
+	public float getMinScore() {
+		return query.minScore;
+	}
+
+	public float getMaxExpected() {
+		return query.maxExpected;
+	}
+
+	/**
+	 * 
+	 * @return the data selection as sent by the client or null for the default
+	 */
+	public String[] getDataSelection() {
+		return query.dataSelection;
+	}
+
+	public String getClassification() {
+		return query.classification;
+	}
+
+	public int[] getClassIds() {
+		return query.classIds;
+	}
+
+	public String getRegEx() {
+		return query.regEx;
+	}
+
+	/**
+	 * 
+	 * @return the find selection as sent by the client or null for the default
+	 */
+	public String[] getFindSelection() {
+		return query.findSelection;
+	}
+
+	public Integer getPageSize() {
+		return query.pageSize;
+	}
+
+	public Long getPageBytes() {
+		return query.pageBytes;
+	}
+
+	/**
+	 * 
+	 * @return number of reads that have been delivered
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * 
+	 * @return uid of the last read delivered or -1 if no read has been delivered
+	 */
+	public long getLastReadUid() {
+		return lastReadUid;
+	}
+
+	/**
+	 * 
+	 * @return number of reads of the file the query has passed up to and including the last read delivered
+	 */
+	public long getScannedReads() {
+		return scannedReads;
+	}
+
+
+	/**The query of a cursor, kept by the server
+	 * 
+	 */
+	private static final class Query {
+		private final TYPE type;
+		private final long nonce;
+		private final FileVersion fileVersion;
+		private final float minScore;
+		private final float maxExpected;
+		private final String[] dataSelection;
+		private final String classification;
+		private final int[] classIds;
+		private final String regEx;
+		private final String[] findSelection;
+		private final Integer pageSize;
+		private final Long pageBytes;
+
+		private Query(TYPE type, long nonce, FileVersion fileVersion, float minScore, float maxExpected, String[] dataSelection, String classification, int[] classIds,
+				String regEx, String[] findSelection, Integer pageSize, Long pageBytes){
+			this.type = type;
+			this.nonce = nonce;
+			this.fileVersion = fileVersion;
+			this.minScore = minScore;
+			this.maxExpected = maxExpected;
+			this.dataSelection = dataSelection;
+			this.classification = classification;
+			this.classIds = classIds;
+			this.regEx = regEx;
+			this.findSelection = findSelection;
+			this.pageSize = pageSize;
+			this.pageBytes = pageBytes;
+		}
+	}
+
+
+}
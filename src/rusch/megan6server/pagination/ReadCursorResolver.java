@@ -0,0 +1,46 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import java.io.IOException;
+
+import megan.data.IReadBlockIterator;
+
+
+/**Reopens the query of a {@link ReadCursor} when its paginator is not in memory anymore
+ */
+public interface ReadCursorResolver {
+
+	/**Open a new iterator for the query of the cursor, positioned after the last read of the cursor.
+	 * The reads before it should not be decoded again.
+	 * 
+	 * @param cursor
+	 * @return the iterator or null if the file is gone or has changed since the cursor was created
+	 * @throws IOException
+	 */
+	IReadBlockIterator openIterator(ReadCursor cursor) throws IOException;
+
+	/**
+	 * 
+	 * @param cursor
+	 * @return the classification names of the file of the cursor
+	 * @throws IOException
+	 */
+	String[] getClassificationNames(ReadCursor cursor) throws IOException;
+}
@@ -0,0 +1,101 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import java.io.IOException;
+
+import megan.data.IReadBlock;
+import rusch.megan5client.ReadBlockServer;
+import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan6server.serialization.ReadBlockJsonWriter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+
+/**A page that keeps the reads as they came out of the iterator and writes them straight to JSON with {@link ReadBlockJsonWriter}.
+ * No {@link ReadBlockServer} is created for a read unless {@link #getReadBlocks()} is called.
+ * 
+ * The fields around the reads are the properties of a {@link ReadBlockPage}, ReadPageJsonTest compares both.
+ * The reads are taken from the iterator one after the other and must not change when the iterator moves on.
+ */
+public class ReadPage extends ReadBlockPage implements JsonSerializable {
+	private static final ReadBlockServer[] NO_READS = new ReadBlockServer[0];
+	private final String nextPageToken;
+	private final IReadBlock[] readBlocks;
+	private final int size;
+	private final String[] classnames;
+	private final long totalNumberOfReads;
+	private final long previouslySeenReads;
+
+	/**
+	 * 
+	 * @param nextPageToken
+	 * @param readBlocks the reads of the page, followed by unused slots
+	 * @param size number of reads
+	 * @param classnames
+	 * @param totalNumberOfReads
+	 * @param previouslySeenReads
+	 */
+	public ReadPage(String nextPageToken, IReadBlock[] readBlocks, int size, String[] classnames, long totalNumberOfReads, long previouslySeenReads){
+		super(nextPageToken, null, NO_READS, totalNumberOfReads, previouslySeenReads);
+		this.nextPageToken = nextPageToken;
+		this.readBlocks = readBlocks;
+		this.size = size;
+		this.classnames = classnames;
+		this.totalNumberOfReads = totalNumberOfReads;
+		this.previouslySeenReads = previouslySeenReads;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**The reads as {@link ReadBlockServer}s, created on every call. Serialization does not use this.
+	 * 
+	 */
+	@Override
+	public ReadBlockServer[] getReadBlocks() {
+		ReadBlockServer[] servers = new ReadBlockServer[size];
+		for(int i = 0; i < size; i++){
+			servers[i] = new ReadBlockServer(readBlocks[i], classnames);
+		}
+		return servers;
+	}
+
+	@Override
+	public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("nextPageToken", nextPageToken);
+		generator.writeStringField("nextPageUrl", getNextPageUrl());
+		generator.writeFieldName("readBlocks");
+		ReadBlockJsonWriter.writeArray(generator, readBlocks, size, classnames);
+		generator.writeNumberField("totalNumberOfReads", totalNumberOfReads);
+		generator.writeNumberField("previouslySeenReads", previouslySeenReads);
+		generator.writeEndObject();
+	}
+
+	@Override
+	public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+		serialize(generator, provider);
+	}
+
+}
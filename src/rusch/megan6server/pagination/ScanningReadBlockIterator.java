@@ -0,0 +1,34 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import megan.data.IReadBlockIterator;
+
+
+/**An iterator that counts the reads of the file it has passed, including those it did not return.
+ * The count is stored in {@link ReadCursor}s so that a query that drops reads can be reopened at the right place.
+ */
+public interface ScanningReadBlockIterator extends IReadBlockIterator {
+
+	/**
+	 * 
+	 * @return number of reads of the file passed up to and including the read returned last
+	 */
+	long getScannedReads();
+}
@@ -0,0 +1,135 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import megan.data.IReadBlock;
+import megan.data.IReadBlockGetter;
+import megan.data.IReadBlockIterator;
+
+
+/**Continues a query after a given read when the query can only be opened at its start, like the reads of a class.
+ * 
+ * The uids come from the query opened without read text and matches, so the reads before the given one are passed
+ * without decoding their text and matches. The reads after it are loaded with the getter, which has the data selection of the query.
+ * The reads scanned are the uids passed, for a query of all reads these are the reads of the file.
+ */
+public class UidReadBlockIterator implements ScanningReadBlockIterator {
+	private final IReadBlockIterator uids;
+	private final IReadBlockGetter getter;
+	private final long lastReadUid;
+	private long scannedReads = 0;
+	private boolean isPositioned = false;
+	private boolean isClosed = false;
+
+
+	/**
+	 * 
+	 * @param uids the query opened without read text and matches, it is closed with the iterator
+	 * @param getter a getter of the file with the data selection of the query, it is closed with the iterator
+	 * @param lastReadUid the read to start after or -1 to start with the first read
+	 */
+	public UidReadBlockIterator(IReadBlockIterator uids, IReadBlockGetter getter, long lastReadUid){
+		this.uids = uids;
+		this.getter = getter;
+		this.lastReadUid = lastReadUid;
+	}
+
+	/**Pass the reads up to and including lastReadUid
+	 * 
+	 */
+	private void position(){
+		if(isPositioned){
+			return;
+		}
+		isPositioned = true;
+		if(lastReadUid >= 0){
+			while(uids.hasNext()){
+				scannedReads++;
+				if(uids.next().getUId() == lastReadUid){
+					return;
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(isClosed){
+			return false;
+		}
+		position();
+		return uids.hasNext();
+	}
+
+	@Override
+	public IReadBlock next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		long uid = uids.next().getUId();
+		scannedReads++;
+		try{
+			return getter.getReadBlock(uid);
+		}catch(IOException e){
+			throw new IllegalStateException("Cannot read " + uid, e);
+		}
+	}
+
+	@Override
+	public long getScannedReads() {
+		return scannedReads;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(!isClosed){
+			isClosed = true;
+			try{
+				uids.close();
+			}finally{
+				getter.close();
+			}
+		}
+	}
+
+	@Override
+	public String getStats() {
+		return uids.getStats();
+	}
+
+	@Override
+	public long getMaximumProgress() {
+		return uids.getMaximumProgress();
+	}
+
+	@Override
+	public long getProgress() {
+		return uids.getProgress();
+	}
+
+
+}
@@ -0,0 +1,309 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.base.GeneratorBase;
+import com.fasterxml.jackson.core.json.JsonWriteContext;
+
+
+/**A JsonGenerator that writes the tokens in the format of {@link BinaryJsonWriter} instead of JSON text.
+ * Serializers write to it as to any other generator, so a {@link rusch.megan6server.pagination.ReadPage} writes its reads
+ * with {@link ReadBlockJsonWriter} straight into the binary form.
+ *
+ * The tokens are collected in a buffer and passed to the stream when it is full and on flush. Closing the generator
+ * does not close the stream. Raw JSON cannot be written.
+ */
+public class BinaryJsonGenerator extends GeneratorBase {
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private final OutputStream out;
+	private final Map<String, Integer> fieldNames = new HashMap<String, Integer>();
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+
+
+	public BinaryJsonGenerator(ObjectCodec codec, OutputStream out){
+		super(JsonGenerator.Feature.collectDefaults(), codec);
+		this.out = out;
+	}
+
+	@Override
+	public void writeStartArray() throws IOException {
+		_verifyValueWrite("start an array");
+		_writeContext = _writeContext.createChildArrayContext();
+		writeTag(BinaryJsonWriter.START_ARRAY);
+	}
+
+	@Override
+	public void writeEndArray() throws IOException {
+		if(!_writeContext.inArray()){
+			_reportError("Current context not an array but " + _writeContext.getTypeDesc());
+		}
+		_writeContext = _writeContext.getParent();
+		writeTag(BinaryJsonWriter.END_ARRAY);
+	}
+
+	@Override
+	public void writeStartObject() throws IOException {
+		_verifyValueWrite("start an object");
+		_writeContext = _writeContext.createChildObjectContext();
+		writeTag(BinaryJsonWriter.START_OBJECT);
+	}
+
+	@Override
+	public void writeEndObject() throws IOException {
+		if(!_writeContext.inObject()){
+			_reportError("Current context not an object but " + _writeContext.getTypeDesc());
+		}
+		_writeContext = _writeContext.getParent();
+		writeTag(BinaryJsonWriter.END_OBJECT);
+	}
+
+	/**The first occurrence of a name is written out, later ones refer to it by index
+	 *
+	 */
+	@Override
+	public void writeFieldName(String name) throws IOException {
+		if(_writeContext.writeFieldName(name) == JsonWriteContext.STATUS_EXPECT_VALUE){
+			_reportError("Can not write a field name, expecting a value");
+		}
+		Integer index = fieldNames.get(name);
+		if(index == null){
+			fieldNames.put(name, fieldNames.size());
+			writeTag(BinaryJsonWriter.FIELD_NAME);
+			writeText(name);
+		}else{
+			writeTag(BinaryJsonWriter.FIELD_NAME_REFERENCE);
+			writeVarint(index);
+		}
+	}
+
+	@Override
+	public void writeString(String text) throws IOException {
+		if(text == null){
+			writeNull();
+			return;
+		}
+		_verifyValueWrite("write a string");
+		writeTag(BinaryJsonWriter.STRING);
+		writeText(text);
+	}
+
+	@Override
+	public void writeString(char[] text, int offset, int length) throws IOException {
+		writeString(new String(text, offset, length));
+	}
+
+	@Override
+	public void writeRawUTF8String(byte[] text, int offset, int length) throws IOException {
+		writeUTF8String(text, offset, length);
+	}
+
+	@Override
+	public void writeUTF8String(byte[] text, int offset, int length) throws IOException {
+		_verifyValueWrite("write a string");
+		writeTag(BinaryJsonWriter.STRING);
+		writeVarint(length);
+		writeBytes(text, offset, length);
+	}
+
+	@Override
+	public void writeRaw(String text) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public void writeRaw(String text, int offset, int length) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public void writeRaw(char[] text, int offset, int length) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public void writeRaw(char c) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public void writeBinary(Base64Variant variant, byte[] data, int offset, int length) throws IOException {
+		if(data == null){
+			writeNull();
+			return;
+		}
+		_verifyValueWrite("write binary value");
+		writeTag(BinaryJsonWriter.BINARY);
+		writeVarint(length);
+		writeBytes(data, offset, length);
+	}
+
+	@Override
+	public void writeNumber(int value) throws IOException {
+		writeNumber((long) value);
+	}
+
+	@Override
+	public void writeNumber(long value) throws IOException {
+		_verifyValueWrite("write a number");
+		writeTag(BinaryJsonWriter.INT);
+		writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	/**Written as string, since it may not fit into a long
+	 *
+	 */
+	@Override
+	public void writeNumber(BigInteger value) throws IOException {
+		writeString(value == null ? null : value.toString());
+	}
+
+	@Override
+	public void writeNumber(double value) throws IOException {
+		_verifyValueWrite("write a number");
+		writeTag(BinaryJsonWriter.DOUBLE);
+		long bits = Double.doubleToLongBits(value);
+		writeInt((int) (bits >>> 32));
+		writeInt((int) bits);
+	}
+
+	@Override
+	public void writeNumber(float value) throws IOException {
+		_verifyValueWrite("write a number");
+		writeTag(BinaryJsonWriter.FLOAT);
+		writeInt(Float.floatToIntBits(value));
+	}
+
+	@Override
+	public void writeNumber(BigDecimal value) throws IOException {
+		if(value == null){
+			writeNull();
+			return;
+		}
+		writeNumber(value.doubleValue());
+	}
+
+	@Override
+	public void writeNumber(String encodedValue) throws IOException {
+		writeString(encodedValue);
+	}
+
+	@Override
+	public void writeBoolean(boolean state) throws IOException {
+		_verifyValueWrite("write a boolean value");
+		writeTag(state ? BinaryJsonWriter.TRUE : BinaryJsonWriter.FALSE);
+	}
+
+	@Override
+	public void writeNull() throws IOException {
+		_verifyValueWrite("write a null");
+		writeTag(BinaryJsonWriter.NULL);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(!isClosed()){
+			flushBuffer();
+			super.close();
+			_releaseBuffers();
+		}
+	}
+
+	@Override
+	protected void _releaseBuffers() {
+		buffer = null;
+	}
+
+	@Override
+	protected void _verifyValueWrite(String typeMsg) throws IOException {
+		if(_writeContext.writeValue() == JsonWriteContext.STATUS_EXPECT_NAME){
+			_reportError("Can not " + typeMsg + ", expecting field name");
+		}
+	}
+
+	private void writeTag(int tag) throws IOException {
+		if(position == buffer.length){
+			flushBuffer();
+		}
+		buffer[position++] = (byte) tag;
+	}
+
+	private void writeText(String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		writeVarint(bytes.length);
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+		if(length > buffer.length - position){
+			flushBuffer();
+			if(length > buffer.length){
+				out.write(bytes, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(bytes, offset, buffer, position, length);
+		position += length;
+	}
+
+	private void writeVarint(long value) throws IOException {
+		if(buffer.length - position < 10){
+			flushBuffer();
+		}
+		while((value & ~0x7FL) != 0){
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	private void writeInt(int value) throws IOException {
+		if(buffer.length - position < 4){
+			flushBuffer();
+		}
+		buffer[position++] = (byte) (value >>> 24);
+		buffer[position++] = (byte) (value >>> 16);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+
+	private void flushBuffer() throws IOException {
+		if(position > 0){
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+}
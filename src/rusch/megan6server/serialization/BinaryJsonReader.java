@@ -0,0 +1,180 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.serialization;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+
+/**Reads the format written by {@link BinaryJsonWriter}. The tokens are turned back into Jackson tokens and bound
+ * by the ObjectMapper, so a value reads into the same classes as its JSON does.
+ */
+public class BinaryJsonReader {
+	private static final int MAXIMUM_VARINT_BYTES = 10;
+	private final ObjectMapper mapper;
+
+
+	public BinaryJsonReader(ObjectMapper mapper){
+		this.mapper = mapper;
+	}
+
+	/**Read one value. The stream is not closed.
+	 * 
+	 * @param in
+	 * @param type
+	 * @return
+	 * @throws IOException if the stream is not in the binary format or ends early
+	 */
+	public <T> T read(InputStream in, Class<T> type) throws IOException{
+		JsonParser parser = readTokens(in).asParser(mapper);
+		try{
+			return mapper.readValue(parser, type);
+		}finally{
+			parser.close();
+		}
+	}
+
+	/**Read the tokens of one value
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public TokenBuffer readTokens(InputStream in) throws IOException{
+		DataInputStream data = new DataInputStream(in);
+		byte[] magic = new byte[BinaryJsonWriter.MAGIC.length];
+		data.readFully(magic);
+		if(!Arrays.equals(magic, BinaryJsonWriter.MAGIC)){
+			throw new IOException("Not in " + BinaryJsonWriter.MEDIA_TYPE + " format");
+		}
+		List<String> fieldNames = new ArrayList<String>();
+		TokenBuffer buffer = new TokenBuffer(mapper);
+		int depth = 0;
+		do{
+			int tag = data.read();
+			switch (tag) {
+			case -1:
+				throw new EOFException("The value ends early");
+			case BinaryJsonWriter.START_OBJECT:
+				buffer.writeStartObject();
+				depth++;
+				break;
+			case BinaryJsonWriter.END_OBJECT:
+				buffer.writeEndObject();
+				depth--;
+				break;
+			case BinaryJsonWriter.START_ARRAY:
+				buffer.writeStartArray();
+				depth++;
+				break;
+			case BinaryJsonWriter.END_ARRAY:
+				buffer.writeEndArray();
+				depth--;
+				break;
+			case BinaryJsonWriter.FIELD_NAME:{
+				String name = readString(data);
+				fieldNames.add(name);
+				buffer.writeFieldName(name);
+				break;
+			}
+			case BinaryJsonWriter.FIELD_NAME_REFERENCE:{
+				long index = readVarint(data);
+				if(index >= fieldNames.size()){
+					throw new IOException("Unknown field name " + index);
+				}
+				buffer.writeFieldName(fieldNames.get((int) index));
+				break;
+			}
+			case BinaryJsonWriter.STRING:
+				buffer.writeString(readString(data));
+				break;
+			case BinaryJsonWriter.INT:{
+				long zigzag = readVarint(data);
+				long value = (zigzag >>> 1) ^ -(zigzag & 1);
+				if(value == (int) value){
+					buffer.writeNumber((int) value);
+				}else{
+					buffer.writeNumber(value);
+				}
+				break;
+			}
+			case BinaryJsonWriter.FLOAT:
+				buffer.writeNumber(Float.intBitsToFloat(data.readInt()));
+				break;
+			case BinaryJsonWriter.DOUBLE:
+				buffer.writeNumber(Double.longBitsToDouble(data.readLong()));
+				break;
+			case BinaryJsonWriter.TRUE:
+				buffer.writeBoolean(true);
+				break;
+			case BinaryJsonWriter.FALSE:
+				buffer.writeBoolean(false);
+				break;
+			case BinaryJsonWriter.NULL:
+				buffer.writeNull();
+				break;
+			case BinaryJsonWriter.BINARY:
+				buffer.writeBinary(readBytes(data));
+				break;
+			default:
+				throw new IOException("Unknown tag " + tag);
+			}
+			if(depth < 0){
+				throw new IOException("Unbalanced end of object or array");
+			}
+		}while(depth > 0);
+		return buffer;
+	}
+
+	private static String readString(DataInputStream in) throws IOException{
+		return new String(readBytes(in), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException{
+		long length = readVarint(in);
+		if(length > Integer.MAX_VALUE){
+			throw new IOException("Length " + length + " is too large");
+		}
+		byte[] bytes = new byte[(int) length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static long readVarint(DataInputStream in) throws IOException{
+		long value = 0;
+		for(int i = 0; i < MAXIMUM_VARINT_BYTES; i++){
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << (7 * i);
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Varint is longer than " + MAXIMUM_VARINT_BYTES + " bytes");
+	}
+}
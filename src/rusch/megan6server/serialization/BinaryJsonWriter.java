@@ -0,0 +1,84 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**Writes objects in a compact binary form of their JSON. The object is serialized by Jackson exactly as for JSON, but into
+ * a {@link BinaryJsonGenerator}, so the structure and the field names are the same, only the encoding of the tokens differs.
+ * 
+ * The stream starts with the magic bytes "MGB1" followed by one value. Each token starts with a tag byte:
+ * <pre>
+ * 1  start object         2  end object
+ * 3  start array          4  end array
+ * 5  new field name: length, UTF-8 bytes. The name gets the next index of the field name table
+ * 6  field name by index: index into the field name table
+ * 7  string: length, UTF-8 bytes
+ * 8  integer: zigzag encoded
+ * 9  float: 4 bytes IEEE 754, big endian
+ * 10 double: 8 bytes IEEE 754, big endian
+ * 11 true     12 false     13 null
+ * 14 binary: length, bytes
+ * </pre>
+ * Lengths, indices and integers are unsigned varints with 7 bits per byte, least significant group first.
+ * 
+ * {@link BinaryJsonReader} reads the format back.
+ */
+public class BinaryJsonWriter {
+	public static final String MEDIA_TYPE = "application/x-megan-binary";
+	public static final byte[] MAGIC = {'M', 'G', 'B', '1'};
+	public static final int START_OBJECT = 1;
+	public static final int END_OBJECT = 2;
+	public static final int START_ARRAY = 3;
+	public static final int END_ARRAY = 4;
+	public static final int FIELD_NAME = 5;
+	public static final int FIELD_NAME_REFERENCE = 6;
+	public static final int STRING = 7;
+	public static final int INT = 8;
+	public static final int FLOAT = 9;
+	public static final int DOUBLE = 10;
+	public static final int TRUE = 11;
+	public static final int FALSE = 12;
+	public static final int NULL = 13;
+	public static final int BINARY = 14;
+
+	private final ObjectMapper mapper;
+
+
+	public BinaryJsonWriter(ObjectMapper mapper){
+		this.mapper = mapper;
+	}
+
+	/**Serialize the object and write it. The stream is not closed.
+	 * 
+	 * @param value
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Object value, OutputStream out) throws IOException{
+		out.write(MAGIC);
+		BinaryJsonGenerator generator = new BinaryJsonGenerator(mapper, out);
+		mapper.writeValue(generator, value);
+		generator.close();
+	}
+}
@@ -0,0 +1,102 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.serialization;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import rusch.megan5client.ClassificationBlockServer;
+import rusch.megan5client.ReadBlockServer;
+import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan6server.compare.ComparisonMatrix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**Writes reads, read pages, classification blocks and comparison matrices in the format of {@link BinaryJsonWriter} 
+ * if the client accepts application/x-megan-binary. All other clients keep getting JSON.
+ */
+public class BinaryReadBlockConverter extends AbstractHttpMessageConverter<Object> {
+	public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(BinaryJsonWriter.MEDIA_TYPE);
+	private final BinaryJsonWriter writer;
+
+
+	public BinaryReadBlockConverter(){
+		this(new ObjectMapper());
+	}
+
+	public BinaryReadBlockConverter(ObjectMapper mapper){
+		super(MEDIA_TYPE);
+		this.writer = new BinaryJsonWriter(mapper);
+	}
+
+	/**Check if the binary format is the preferred media type of the request. Endpoints that write cached payloads
+	 * themselves use this to make the same choice the message converters would.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	public static boolean isPreferred(HttpServletRequest request){
+		String accept = request.getHeader("Accept");
+		if(accept == null || !accept.contains(BinaryJsonWriter.MEDIA_TYPE)){
+			return false;
+		}
+		try{
+			List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+			MediaType.sortBySpecificityAndQuality(mediaTypes);
+			return MEDIA_TYPE.includes(mediaTypes.get(0)) && mediaTypes.get(0).getQualityValue() > 0;
+		}catch(IllegalArgumentException e){
+			return false;
+		}
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return ReadBlockPage.class.isAssignableFrom(clazz) || ReadBlockServer.class.isAssignableFrom(clazz) || ReadBlockServer[].class.isAssignableFrom(clazz) || ClassificationBlockServer.class.isAssignableFrom(clazz)
+				|| ComparisonMatrix.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	public boolean canRead(Class<?> clazz, MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	protected Object readInternal(Class<? extends Object> clazz, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
+		throw new HttpMessageNotReadableException("Reading " + MEDIA_TYPE + " is not supported.");
+	}
+
+	@Override
+	protected void writeInternal(Object t, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+		OutputStream out = new BufferedOutputStream(outputMessage.getBody(), 64 * 1024);
+		writer.write(t, out);
+		out.flush();
+	}
+}
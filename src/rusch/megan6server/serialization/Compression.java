@@ -0,0 +1,164 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import rusch.megan6server.ServerProperties;
+
+
+/**gzip encoding of responses, negotiated with the Accept-Encoding header of the request.
+ * 
+ * Configured with compression.enabled, compression.level (1 fastest to 9 smallest) and compression.minSize,
+ * the size in bytes below which cached payloads are sent uncompressed.
+ */
+public class Compression {
+	public static final String GZIP = "gzip";
+	private static final boolean enabled = ServerProperties.getBoolean("compression.enabled", true);
+	private static final int level = ServerProperties.getInt("compression.level", 6);
+	private static final int minSize = ServerProperties.getInt("compression.minSize", 1024);
+	private static final int BUFFER_SIZE = 8192;
+
+
+	/**Check if the client accepts gzip. All codings of the header are read: an explicit q value for gzip decides,
+	 * otherwise the one of *. A q value of 0 means the coding is not accepted, e.g. "*;q=0, gzip" accepts gzip and "gzip;q=0, *" does not.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	public static boolean acceptsGzip(HttpServletRequest request){
+		return enabled && request != null && acceptsGzip(request.getHeader("Accept-Encoding"));
+	}
+
+	static boolean acceptsGzip(String acceptEncoding){
+		if(acceptEncoding == null){
+			return false;
+		}
+		double gzipQuality = -1;
+		double anyQuality = -1;
+		for(String coding : acceptEncoding.split(",")){
+			String[] parts = coding.split(";");
+			String name = parts[0].trim();
+			boolean isGzip = name.equalsIgnoreCase(GZIP) || name.equalsIgnoreCase("x-gzip");
+			if(!isGzip && !name.equals("*")){
+				continue;
+			}
+			double quality = getQuality(parts);
+			if(isGzip){
+				gzipQuality = Math.max(gzipQuality, quality);
+			}else{
+				anyQuality = Math.max(anyQuality, quality);
+			}
+		}
+		return gzipQuality >= 0 ? gzipQuality > 0 : anyQuality > 0;
+	}
+
+	/**
+	 * 
+	 * @param parts a coding and its parameters
+	 * @return the q value, 1 if there is none and 0 if it can not be read
+	 */
+	private static double getQuality(String[] parts){
+		for(int i = 1; i < parts.length; i++){
+			String parameter = parts[i].trim();
+			if(parameter.startsWith("q=") || parameter.startsWith("Q=")){
+				try{
+					double quality = Double.parseDouble(parameter.substring(2).trim());
+					return quality > 0 ? Math.min(quality, 1) : 0;
+				}catch(NumberFormatException e){
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * 
+	 * @param size of the uncompressed body
+	 * @return true if the body is large enough to be worth compressing
+	 */
+	public static boolean isWorthCompressing(int size){
+		return size >= minSize;
+	}
+
+	/**Set the headers of a gzip encoded response
+	 * 
+	 * @param response
+	 */
+	public static void setGzipHeaders(HttpServletResponse response){
+		response.setHeader("Content-Encoding", GZIP);
+	}
+
+	/**Tell caches which request headers the response depends on. Has to be sent with every response that may be compressed,
+	 * also with the uncompressed ones and with a 304.
+	 * 
+	 * @param response
+	 * @param negotiatesContentType true if the Accept header chooses between JSON and the binary format
+	 */
+	public static void setVaryHeaders(HttpServletResponse response, boolean negotiatesContentType){
+		response.setHeader("Vary", getVary(negotiatesContentType));
+	}
+
+	/**
+	 * 
+	 * @param negotiatesContentType
+	 * @return the value of the Vary header
+	 */
+	public static String getVary(boolean negotiatesContentType){
+		return negotiatesContentType ? "Accept, Accept-Encoding" : "Accept-Encoding";
+	}
+
+	/**
+	 * 
+	 * @param out
+	 * @return a stream that compresses into out. Must be finished to write the trailer.
+	 * @throws IOException
+	 */
+	public static GZIPOutputStream createGzipStream(OutputStream out) throws IOException{
+		return new GZIPOutputStream(out, BUFFER_SIZE){
+			{
+				def.setLevel(level);
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @param data
+	 * @return data compressed with gzip
+	 */
+	public static byte[] gzip(byte[] data){
+		try{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+			GZIPOutputStream out = createGzipStream(bytes);
+			out.write(data);
+			out.close();
+			return bytes.toByteArray();
+		}catch(IOException e){
+			throw new IllegalStateException("Cannot compress in memory", e);
+		}
+	}
+}
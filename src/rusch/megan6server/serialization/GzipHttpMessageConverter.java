@@ -0,0 +1,127 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.serialization;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+
+/**Wraps a message converter and compresses what it writes with gzip if the client of the current request accepts it.
+ * Reading is passed through unchanged.
+ * 
+ * @param <T>
+ */
+public class GzipHttpMessageConverter<T> implements HttpMessageConverter<T> {
+	private final HttpMessageConverter<T> delegate;
+
+
+	public GzipHttpMessageConverter(HttpMessageConverter<T> delegate){
+		this.delegate = delegate;
+	}
+
+	@Override
+	public boolean canRead(Class<?> clazz, MediaType mediaType) {
+		return delegate.canRead(clazz, mediaType);
+	}
+
+	@Override
+	public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+		return delegate.canWrite(clazz, mediaType);
+	}
+
+	@Override
+	public List<MediaType> getSupportedMediaTypes() {
+		return delegate.getSupportedMediaTypes();
+	}
+
+	@Override
+	public T read(Class<? extends T> clazz, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
+		return delegate.read(clazz, inputMessage);
+	}
+
+	@Override
+	public void write(T t, MediaType contentType, final HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+		// the converter is chosen by the Accept header, the encoding by Accept-Encoding
+		outputMessage.getHeaders().set("Vary", Compression.getVary(true));
+		if(!Compression.acceptsGzip(getCurrentRequest())){
+			delegate.write(t, contentType, outputMessage);
+			return;
+		}
+		final HttpHeaders headers = outputMessage.getHeaders();
+		headers.set("Content-Encoding", Compression.GZIP);
+		final GZIPOutputStream[] gzip = new GZIPOutputStream[1];
+		final OutputStream[] body = new OutputStream[1];
+		delegate.write(t, contentType, new HttpOutputMessage() {
+			@Override
+			public HttpHeaders getHeaders() {
+				return headers;
+			}
+
+			@Override
+			public OutputStream getBody() throws IOException {
+				if(gzip[0] == null){
+					// the length set by the delegate is the uncompressed one
+					headers.remove("Content-Length");
+					gzip[0] = Compression.createGzipStream(outputMessage.getBody());
+					// the gzip trailer is written below, a delegate closing the body must not end the deflater
+					body[0] = new FilterOutputStream(gzip[0]){
+						@Override
+						public void write(byte[] b, int off, int len) throws IOException {
+							out.write(b, off, len);
+						}
+
+						@Override
+						public void close() throws IOException {
+							flush();
+						}
+					};
+				}
+				return body[0];
+			}
+		});
+		if(gzip[0] != null){
+			gzip[0].finish();
+			gzip[0].flush();
+		}
+	}
+
+	private static HttpServletRequest getCurrentRequest(){
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if(attributes instanceof ServletRequestAttributes){
+			return ((ServletRequestAttributes) attributes).getRequest();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,104 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.serialization;
+
+import java.io.IOException;
+
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
+import rusch.megan5client.ReadBlockServer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+
+/**Writes {@link IReadBlock}s to a {@link JsonGenerator} in the schema of {@link ReadBlockServer} without creating a ReadBlockServer
+ * and its match objects. Field by field the output is what Jackson writes for a ReadBlockServer built from the same read:
+ * the values an IReadBlock and its IMatchBlocks can be set to, plus the id of every match in each of the classifications.
+ * 
+ * The schema belongs to the client library. ReadPageJsonTest compares the output with ReadBlockServer and has to be run
+ * when the library is updated.
+ */
+public class ReadBlockJsonWriter {
+
+	private ReadBlockJsonWriter(){
+	}
+
+	/**Write the first size reads as a JSON array
+	 * 
+	 * @param generator
+	 * @param readBlocks
+	 * @param size
+	 * @param classnames the classifications whose ids are written for every match
+	 * @throws IOException
+	 */
+	public static void writeArray(JsonGenerator generator, IReadBlock[] readBlocks, int size, String[] classnames) throws IOException{
+		generator.writeStartArray();
+		for(int i = 0; i < size; i++){
+			write(generator, readBlocks[i], classnames);
+		}
+		generator.writeEndArray();
+	}
+
+	/**Write one read as an object
+	 * 
+	 * @param generator
+	 * @param readBlock
+	 * @param classnames
+	 * @throws IOException
+	 */
+	public static void write(JsonGenerator generator, IReadBlock readBlock, String[] classnames) throws IOException{
+		generator.writeStartObject();
+		generator.writeNumberField("readUid", readBlock.getUId());
+		generator.writeStringField("readHeader", readBlock.getReadHeader());
+		generator.writeStringField("readSequence", readBlock.getReadSequence());
+		generator.writeNumberField("mateUId", readBlock.getMateUId());
+		generator.writeNumberField("mateType", readBlock.getMateType());
+		generator.writeNumberField("readLength", readBlock.getReadLength());
+		generator.writeNumberField("complexity", readBlock.getComplexity());
+		generator.writeNumberField("readWeight", readBlock.getReadWeight());
+		generator.writeNumberField("numberOfMatches", readBlock.getNumberOfMatches());
+		int numberOfAvailableMatches = readBlock.getNumberOfAvailableMatches();
+		generator.writeArrayFieldStart("matchBlocks");
+		for(int i = 0; i < numberOfAvailableMatches; i++){
+			write(generator, readBlock.getMatchBlock(i), classnames);
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	private static void write(JsonGenerator generator, IMatchBlock matchBlock, String[] classnames) throws IOException{
+		generator.writeStartObject();
+		generator.writeNumberField("uid", matchBlock.getUId());
+		generator.writeNumberField("taxonId", matchBlock.getTaxonId());
+		generator.writeNumberField("bitScore", matchBlock.getBitScore());
+		generator.writeNumberField("percentIdentity", matchBlock.getPercentIdentity());
+		generator.writeStringField("refSeqId", matchBlock.getRefSeqId());
+		generator.writeNumberField("expected", matchBlock.getExpected());
+		generator.writeNumberField("length", matchBlock.getLength());
+		generator.writeBooleanField("ignore", matchBlock.isIgnore());
+		generator.writeStringField("text", matchBlock.getText());
+		generator.writeObjectFieldStart("classificationIds");
+		for(String classname : classnames){
+			generator.writeNumberField(classname, matchBlock.getId(classname));
+		}
+		generator.writeEndObject();
+		generator.writeEndObject();
+	}
+
+}
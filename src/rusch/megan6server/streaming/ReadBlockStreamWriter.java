@@ -0,0 +1,184 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.streaming;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import jloda.util.Single;
+import megan.data.FindSelection;
+import megan.data.IReadBlock;
+import megan.data.IReadBlockIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rusch.megan6server.find.ParallelFind;
+import rusch.megan6server.serialization.Compression;
+import rusch.megan6server.serialization.ReadBlockJsonWriter;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**Writes all reads of an {@link IReadBlockIterator} to the response in one go instead of pages of 50 reads.
+ * 
+ * Every read is written with {@link ReadBlockJsonWriter} as soon as it comes out of the iterator, so memory use does not depend on the number of reads.
+ * As there is no content length the servlet engine sends the response with chunked transfer encoding. The output looks like this:
+ * 
+ * {"totalNumberOfReads":1000,"readBlocks":[{...},{...}],"numberOfReads":1000}
+ * 
+ * numberOfReads is written last, a client that does not find it knows that the stream was cut off.
+ */
+public class ReadBlockStreamWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReadBlockStreamWriter.class);
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final ObjectMapper mapper;
+
+
+	public ReadBlockStreamWriter(){
+		this.mapper = new ObjectMapper();
+	}
+
+	/**Write all reads of the iterator to the response and close the iterator. Compressed with gzip if the client accepts it.
+	 * 
+	 * @param iterator
+	 * @param classnames
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void write(IReadBlockIterator iterator, String[] classnames, HttpServletRequest request, HttpServletResponse response) throws IOException{
+		OutputStream outputStream = openOutputStream(request, response);
+		write(iterator, classnames, outputStream);
+		finish(outputStream);
+	}
+
+	/**Search the files with {@link ParallelFind} and write every hit to the response as soon as it is found. The output looks like this:
+	 * 
+	 * {"hits":[{"fileId":"a.rma6","readBlock":{...}},...],"numberOfHits":10,"errors":{"b.rma6":"..."}}
+	 * 
+	 * If the client goes away the search is canceled.
+	 * 
+	 * @param fileIds
+	 * @param regEx
+	 * @param findSelection
+	 * @param find
+	 * @param source
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void writeHits(String[] fileIds, String regEx, FindSelection findSelection, ParallelFind find, ParallelFind.ReadSource source,
+			HttpServletRequest request, HttpServletResponse response) throws IOException{
+		OutputStream outputStream = openOutputStream(request, response);
+		final JsonGenerator generator = mapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+		final AtomicLong numberOfHits = new AtomicLong();
+		Single<Boolean> canceled = new Single<Boolean>(false);
+		generator.writeStartObject();
+		generator.writeArrayFieldStart("hits");
+		Map<String, String> errors = find.find(fileIds, regEx, findSelection, source, new ParallelFind.HitListener() {
+			@Override
+			public void hit(String fileId, String[] classificationNames, IReadBlock readBlock) throws IOException {
+				synchronized (generator) {
+					generator.writeStartObject();
+					generator.writeStringField("fileId", fileId);
+					generator.writeFieldName("readBlock");
+					ReadBlockJsonWriter.write(generator, readBlock, classificationNames);
+					generator.writeEndObject();
+					numberOfHits.incrementAndGet();
+				}
+			}
+		}, canceled);
+		if(Boolean.TRUE.equals(canceled.get())){
+			logger.info("Find stopped after " + numberOfHits.get() + " hits.");
+			return;
+		}
+		generator.writeEndArray();
+		generator.writeNumberField("numberOfHits", numberOfHits.get());
+		generator.writeObjectField("errors", errors);
+		generator.writeEndObject();
+		generator.flush();
+		finish(outputStream);
+	}
+
+	/**The response stream, compressed with gzip if the client accepts it
+	 * 
+	 * @param request
+	 * @param response
+	 * @return
+	 * @throws IOException
+	 */
+	private static OutputStream openOutputStream(HttpServletRequest request, HttpServletResponse response) throws IOException{
+		response.setContentType("application/json;charset=UTF-8");
+		response.setBufferSize(BUFFER_SIZE);
+		Compression.setVaryHeaders(response, false);
+		if(Compression.acceptsGzip(request)){
+			Compression.setGzipHeaders(response);
+			return Compression.createGzipStream(response.getOutputStream());
+		}
+		return response.getOutputStream();
+	}
+
+	private static void finish(OutputStream outputStream) throws IOException{
+		if(outputStream instanceof GZIPOutputStream){
+			((GZIPOutputStream) outputStream).finish();
+		}
+	}
+
+	/**Write all reads of the iterator to the stream and close the iterator
+	 * 
+	 * @param iterator
+	 * @param classnames
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public void write(IReadBlockIterator iterator, String[] classnames, OutputStream outputStream) throws IOException{
+		long numberOfReads = 0;
+		try{
+			JsonGenerator generator = mapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+			generator.writeStartObject();
+			generator.writeNumberField("totalNumberOfReads", iterator.getMaximumProgress());
+			generator.writeArrayFieldStart("readBlocks");
+			while(iterator.hasNext()){
+				ReadBlockJsonWriter.write(generator, iterator.next(), classnames);
+				numberOfReads++;
+			}
+			generator.writeEndArray();
+			generator.writeNumberField("numberOfReads", numberOfReads);
+			generator.writeEndObject();
+			generator.flush();
+		}catch(IOException e){
+			logger.info("Streaming stopped after " + numberOfReads + " reads: " + e.getMessage());
+			throw e;
+		}finally{
+			iterator.close();
+		}
+	}
+
+
+}
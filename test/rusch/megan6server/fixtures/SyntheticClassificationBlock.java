@@ -0,0 +1,69 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.fixtures;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import megan.data.IClassificationBlock;
+
+
+/**A classification block held in plain maps, for tests and benchmarks that need one without an RMA file
+ * 
+ */
+public class SyntheticClassificationBlock implements IClassificationBlock {
+	private String name;
+	private final Map<Integer, Integer> sums = new HashMap<Integer, Integer>();
+	private final Map<Integer, Float> weightedSums = new HashMap<Integer, Float>();
+
+	public SyntheticClassificationBlock(String name){
+		this.name = name;
+	}
+
+	public int getSum(Integer key) {
+		Integer sum = sums.get(key);
+		return sum == null ? 0 : sum;
+	}
+
+	public void setSum(Integer key, int num) {
+		sums.put(key, num);
+	}
+
+	public float getWeightedSum(Integer key) {
+		Float sum = weightedSums.get(key);
+		return sum == null ? getSum(key) : sum;
+	}
+
+	public void setWeightedSum(Integer key, float num) {
+		weightedSums.put(key, num);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Set<Integer> getKeySet() {
+		return sums.keySet();
+	}
+}
@@ -0,0 +1,153 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.fixtures;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import megan.data.IMatchBlock;
+
+
+/**A match held in plain fields, for tests and benchmarks that need reads without an RMA file
+ * 
+ */
+public class SyntheticMatchBlock implements IMatchBlock {
+	private long uid;
+	private int taxonId;
+	private float bitScore;
+	private float percentIdentity;
+	private String refSeqId;
+	private float expected;
+	private int length;
+	private boolean ignore;
+	private String text;
+	private final Map<String, Integer> classification2Id = new HashMap<String, Integer>();
+
+	public long getUId() {
+		return uid;
+	}
+
+	public void setUId(long uid) {
+		this.uid = uid;
+	}
+
+	public int getTaxonId() {
+		return taxonId;
+	}
+
+	public void setTaxonId(int taxonId) {
+		this.taxonId = taxonId;
+	}
+
+	public float getBitScore() {
+		return bitScore;
+	}
+
+	public void setBitScore(float bitScore) {
+		this.bitScore = bitScore;
+	}
+
+	public float getPercentIdentity() {
+		return percentIdentity;
+	}
+
+	public void setPercentIdentity(float percentIdentity) {
+		this.percentIdentity = percentIdentity;
+	}
+
+	public String getRefSeqId() {
+		return refSeqId;
+	}
+
+	public void setRefSeqId(String refSeqId) {
+		this.refSeqId = refSeqId;
+	}
+
+	public float getExpected() {
+		return expected;
+	}
+
+	public void setExpected(float expected) {
+		this.expected = expected;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public void setLength(int length) {
+		this.length = length;
+	}
+
+	public boolean isIgnore() {
+		return ignore;
+	}
+
+	public void setIgnore(boolean ignore) {
+		this.ignore = ignore;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public String getTextFirstWord() {
+		if(text == null){
+			return null;
+		}
+		int end = 0;
+		while(end < text.length() && !Character.isWhitespace(text.charAt(end))){
+			end++;
+		}
+		return text.substring(0, end);
+	}
+
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	public int getId(String classification) {
+		Integer id = classification2Id.get(classification);
+		return id == null ? 0 : id;
+	}
+
+	public void setId(String classification, Integer id) {
+		classification2Id.put(classification, id);
+	}
+
+	public int[] getIds(String[] classifications) {
+		int[] ids = new int[classifications.length];
+		for(int i = 0; i < classifications.length; i++){
+			ids[i] = getId(classifications[i]);
+		}
+		return ids;
+	}
+
+	public int getAlignedQueryStart() {
+		return 1;
+	}
+
+	public int getAlignedQueryEnd() {
+		return length;
+	}
+
+	public int getRefLength() {
+		return length;
+	}
+}
@@ -0,0 +1,151 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.fixtures;
+
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
+
+
+/**A read held in plain fields, for tests and benchmarks that need reads without an RMA file
+ * 
+ */
+public class SyntheticReadBlock implements IReadBlock {
+	private long uid;
+	private String readHeader;
+	private String readSequence;
+	private long mateUid;
+	private byte mateType;
+	private int readLength;
+	private int complexity;
+	private int readWeight = 1;
+	private int numberOfMatches;
+	private IMatchBlock[] matchBlocks = new IMatchBlock[0];
+
+	public SyntheticReadBlock(){
+	}
+
+	public SyntheticReadBlock(long uid, String readHeader, String readSequence, IMatchBlock[] matchBlocks){
+		this.uid = uid;
+		this.readHeader = readHeader;
+		this.readSequence = readSequence;
+		this.readLength = readSequence == null ? 0 : readSequence.length();
+		setMatchBlocks(matchBlocks);
+	}
+
+	public long getUId() {
+		return uid;
+	}
+
+	public void setUId(long uid) {
+		this.uid = uid;
+	}
+
+	public String getReadName() {
+		if(readHeader == null){
+			return null;
+		}
+		int start = readHeader.startsWith(">") ? 1 : 0;
+		int end = start;
+		while(end < readHeader.length() && !Character.isWhitespace(readHeader.charAt(end))){
+			end++;
+		}
+		return readHeader.substring(start, end);
+	}
+
+	public String getReadHeader() {
+		return readHeader;
+	}
+
+	public void setReadHeader(String readHeader) {
+		this.readHeader = readHeader;
+	}
+
+	public String getReadSequence() {
+		return readSequence;
+	}
+
+	public void setReadSequence(String readSequence) {
+		this.readSequence = readSequence;
+	}
+
+	public long getMateUId() {
+		return mateUid;
+	}
+
+	public void setMateUId(long mateUid) {
+		this.mateUid = mateUid;
+	}
+
+	public byte getMateType() {
+		return mateType;
+	}
+
+	public void setMateType(byte mateType) {
+		this.mateType = mateType;
+	}
+
+	public int getReadLength() {
+		return readLength;
+	}
+
+	public void setReadLength(int readLength) {
+		this.readLength = readLength;
+	}
+
+	public int getComplexity() {
+		return complexity;
+	}
+
+	public void setComplexity(int complexity) {
+		this.complexity = complexity;
+	}
+
+	public int getReadWeight() {
+		return readWeight;
+	}
+
+	public void setReadWeight(int readWeight) {
+		this.readWeight = readWeight;
+	}
+
+	public int getNumberOfMatches() {
+		return numberOfMatches;
+	}
+
+	public void setNumberOfMatches(int numberOfMatches) {
+		this.numberOfMatches = numberOfMatches;
+	}
+
+	public int getNumberOfAvailableMatches() {
+		return matchBlocks.length;
+	}
+
+	public IMatchBlock getMatchBlock(int i) {
+		return matchBlocks[i];
+	}
+
+	public IMatchBlock[] getMatchBlocks() {
+		return matchBlocks;
+	}
+
+	public void setMatchBlocks(IMatchBlock[] matchBlocks) {
+		this.matchBlocks = matchBlocks == null ? new IMatchBlock[0] : matchBlocks;
+		this.numberOfMatches = this.matchBlocks.length;
+	}
+}
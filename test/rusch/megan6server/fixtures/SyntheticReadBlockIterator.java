@@ -0,0 +1,73 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.fixtures;
+
+import java.util.NoSuchElementException;
+
+import megan.data.IReadBlock;
+import megan.data.IReadBlockIterator;
+
+
+/**Iterates over reads held in an array. The reads are not copied, many iterators can share one array.
+ * 
+ */
+public class SyntheticReadBlockIterator implements IReadBlockIterator {
+	private final IReadBlock[] reads;
+	private int position = 0;
+	private volatile boolean closed = false;
+
+	public SyntheticReadBlockIterator(IReadBlock[] reads){
+		this.reads = reads;
+	}
+
+	public boolean hasNext() {
+		return !closed && position < reads.length;
+	}
+
+	public IReadBlock next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		return reads[position++];
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public String getStats() {
+		return "synthetic";
+	}
+
+	public long getMaximumProgress() {
+		return reads.length;
+	}
+
+	public long getProgress() {
+		return position;
+	}
+
+	public void close() {
+		closed = true;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+}
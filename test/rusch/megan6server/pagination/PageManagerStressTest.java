@@ -0,0 +1,161 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
+import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan6server.fixtures.SyntheticMatchBlock;
+import rusch.megan6server.fixtures.SyntheticReadBlock;
+import rusch.megan6server.fixtures.SyntheticReadBlockIterator;
+
+
+/**Stress test of the {@link PageManager} with hundreds of cursors that are paged through concurrently.
+ * 
+ * Every cursor iterates over its own synthetic reads with its own page size. A share of the pages is requested twice at the same time,
+ * like a client that retries. Each cursor has to deliver every read exactly once in pages of the requested size,
+ * concurrent requests for the same token have to get the same page and at the end all paginators have to be closed and unregistered.
+ * 
+ * Run with gradle stressTest or with the number of cursors and threads as arguments. Exits with 1 if a check fails.
+ */
+public class PageManagerStressTest {
+	private static final String[] CLASSNAMES = {"Taxonomy", "SEED"};
+	private static final long SEED = 42;
+
+	public static void main(String[] args) throws Exception {
+		int numberOfCursors = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+		int numberOfThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		List<String> failures = new PageManagerStressTest().run(numberOfCursors, numberOfThreads);
+		for(String failure : failures){
+			System.err.println(failure);
+		}
+		System.out.println(String.format("%s cursors on %s threads: %s", numberOfCursors, numberOfThreads, failures.isEmpty() ? "OK" : failures.size() + " failures"));
+		System.exit(failures.isEmpty() ? 0 : 1);
+	}
+
+	public List<String> run(int numberOfCursors, int numberOfThreads) throws Exception {
+		final PageManager pageManager = new PageManager();
+		final ExecutorService clients = Executors.newFixedThreadPool(numberOfThreads);
+		final ExecutorService retries = Executors.newFixedThreadPool(numberOfThreads);
+		Random random = new Random(SEED);
+		List<SyntheticReadBlockIterator> iterators = new ArrayList<SyntheticReadBlockIterator>();
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		long start = System.currentTimeMillis();
+		for(int c = 0; c < numberOfCursors; c++){
+			final int cursorId = c;
+			final int numberOfReads = random.nextInt(2000);
+			final int pageSize = 1 + random.nextInt(100);
+			final SyntheticReadBlockIterator iterator = new SyntheticReadBlockIterator(createReads(cursorId, numberOfReads));
+			final long retrySeed = random.nextLong();
+			iterators.add(iterator);
+			results.add(clients.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return pageThrough(pageManager, retries, cursorId, iterator, numberOfReads, pageSize, new Random(retrySeed));
+				}
+			}));
+		}
+		List<String> failures = new ArrayList<String>();
+		for(Future<String> result : results){
+			String failure = result.get(10, TimeUnit.MINUTES);
+			if(failure != null){
+				failures.add(failure);
+			}
+		}
+		clients.shutdown();
+		retries.shutdown();
+		for(int c = 0; c < iterators.size(); c++){
+			if(!iterators.get(c).isClosed()){
+				failures.add(String.format("cursor %s: the iterator has not been closed", c));
+			}
+		}
+		if(pageManager.getNumberOfPaginators() != 0){
+			failures.add(String.format("%s paginators are still registered", pageManager.getNumberOfPaginators()));
+		}
+		System.out.println(String.format("Paged through %s cursors in %sms", numberOfCursors, System.currentTimeMillis() - start));
+		return failures;
+	}
+
+	/**Request all pages of one cursor. Every fourth page on average is requested by a second thread at the same time.
+	 * 
+	 * @return a description of the failure or null
+	 */
+	private String pageThrough(final PageManager pageManager, ExecutorService retries, int cursorId, SyntheticReadBlockIterator iterator, int numberOfReads, int pageSize, Random random) throws Exception {
+		final String firstToken = pageManager.registerPaginator(iterator, CLASSNAMES, pageSize, null);
+		String token = firstToken;
+		long delivered = 0;
+		int pages = 0;
+		while(token != null){
+			final String pageToken = token;
+			Future<ReadBlockPage> retry = null;
+			if(random.nextInt(4) == 0){
+				retry = retries.submit(new Callable<ReadBlockPage>() {
+					@Override
+					public ReadBlockPage call() throws Exception {
+						return pageManager.retrieveReadBlockPage(pageToken);
+					}
+				});
+			}
+			ReadBlockPage page = pageManager.retrieveReadBlockPage(pageToken);
+			if(retry != null && retry.get() != page){
+				return String.format("cursor %s: concurrent requests of page %s got different pages", cursorId, pages);
+			}
+			int size = page.getReadBlocks() == null ? 0 : page.getReadBlocks().length;
+			// a full last page does not know that it is the last one, the page after it is empty
+			if(size == 0 && (delivered != numberOfReads || page.getNextPageToken() != null)){
+				return String.format("cursor %s: page %s is empty after %s of %s reads", cursorId, pages, delivered, numberOfReads);
+			}
+			delivered += size;
+			pages++;
+			if(page.getNextPageToken() != null && size != pageSize){
+				return String.format("cursor %s: page %s has %s reads instead of %s", cursorId, pages, size, pageSize);
+			}
+			token = page.getNextPageToken();
+		}
+		if(delivered != numberOfReads){
+			return String.format("cursor %s: %s of %s reads delivered", cursorId, delivered, numberOfReads);
+		}
+		return null;
+	}
+
+	private static IReadBlock[] createReads(int cursorId, int numberOfReads){
+		IReadBlock[] reads = new IReadBlock[numberOfReads];
+		for(int i = 0; i < numberOfReads; i++){
+			SyntheticMatchBlock match = new SyntheticMatchBlock();
+			match.setUId(i);
+			match.setBitScore(100);
+			match.setText(">ref" + i);
+			for(String classname : CLASSNAMES){
+				match.setId(classname, 1 + i % 100);
+			}
+			reads[i] = new SyntheticReadBlock(cursorId * 1000000L + i, ">read" + i, "ACGT", new IMatchBlock[]{match});
+		}
+		return reads;
+	}
+
+}
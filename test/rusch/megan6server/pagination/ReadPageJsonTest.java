@@ -0,0 +1,121 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.pagination;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
+import rusch.megan5client.ReadBlockServer;
+import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan6server.fixtures.SyntheticMatchBlock;
+import rusch.megan6server.fixtures.SyntheticReadBlock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**Writes pages with {@link ReadPage} and compares them with the JSON of a {@link ReadBlockPage} of {@link ReadBlockServer}s
+ * built from the same reads, the way pages were written before.
+ * 
+ * Covers reads with and without matches, missing texts, several classifications and empty pages. This pins the fields written by
+ * {@link rusch.megan6server.serialization.ReadBlockJsonWriter}, run it whenever the client library is updated.
+ * 
+ * Run with gradle readPageTest. Exits with 1 if a check fails.
+ */
+public class ReadPageJsonTest {
+	private static final String[] CLASSNAMES = {"Taxonomy", "SEED", "KEGG"};
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final List<String> failures = new ArrayList<String>();
+
+	public static void main(String[] args) throws Exception {
+		List<String> failures = new ReadPageJsonTest().run();
+		for(String failure : failures){
+			System.err.println(failure);
+		}
+		System.out.println(failures.isEmpty() ? "OK" : failures.size() + " failures");
+		System.exit(failures.isEmpty() ? 0 : 1);
+	}
+
+	public List<String> run() throws IOException {
+		IReadBlock[] reads = new IReadBlock[8];
+		for(int i = 0; i < reads.length; i++){
+			reads[i] = createRead(i, i % 4);
+		}
+		check("reads without matches", new IReadBlock[]{createRead(100, 0), createRead(101, 0)}, 2, "next", null);
+		check("reads with matches", reads, reads.length, "next", "http://localhost/loadPagedReads?pageId=next");
+		check("last page with unused slots", reads, 3, null, null);
+		check("empty page", new IReadBlock[4], 0, null, null);
+		SyntheticReadBlock withoutText = createRead(200, 2);
+		withoutText.setReadHeader(null);
+		withoutText.setReadSequence(null);
+		for(IMatchBlock matchBlock : withoutText.getMatchBlocks()){
+			((SyntheticMatchBlock) matchBlock).setText(null);
+		}
+		check("reads without text", new IReadBlock[]{withoutText}, 1, "next", null);
+		return failures;
+	}
+
+	private void check(String name, IReadBlock[] reads, int size, String token, String url) throws IOException {
+		ReadPage page = new ReadPage(token, reads, size, CLASSNAMES, 1000, 10);
+		page.setNextPageUrl(url);
+		ReadBlockServer[] servers = new ReadBlockServer[size];
+		for(int i = 0; i < size; i++){
+			servers[i] = new ReadBlockServer(reads[i], CLASSNAMES);
+		}
+		ReadBlockPage expected = new ReadBlockPage(token, url, servers, 1000, 10);
+		String expectedJson = mapper.writeValueAsString(expected);
+		String actualJson = mapper.writeValueAsString(page);
+		if(!mapper.readTree(expectedJson).equals(mapper.readTree(actualJson))){
+			failures.add(String.format("%s: wrote %s instead of %s", name, abbreviate(actualJson), abbreviate(expectedJson)));
+		}
+	}
+
+	private static SyntheticReadBlock createRead(long uid, int numberOfMatches){
+		IMatchBlock[] matchBlocks = new IMatchBlock[numberOfMatches];
+		for(int i = 0; i < numberOfMatches; i++){
+			SyntheticMatchBlock matchBlock = new SyntheticMatchBlock();
+			matchBlock.setUId(uid * 100 + i);
+			matchBlock.setTaxonId(1000 + i);
+			matchBlock.setBitScore(87.5f + i);
+			matchBlock.setPercentIdentity(92.25f);
+			matchBlock.setRefSeqId("WP_" + uid + "." + i);
+			matchBlock.setExpected(1e-20f * (i + 1));
+			matchBlock.setLength(120 + i);
+			matchBlock.setIgnore(i == 2);
+			matchBlock.setText(">ref" + i + " \u00e9\n Query: MKV\n Sbjct: MKL");
+			for(int c = 0; c < CLASSNAMES.length; c++){
+				matchBlock.setId(CLASSNAMES[c], c == 2 && i == 0 ? null : (int) uid + c);
+			}
+			matchBlocks[i] = matchBlock;
+		}
+		SyntheticReadBlock read = new SyntheticReadBlock(uid, ">read" + uid + " sample=1", "ACGTACGTTG", matchBlocks);
+		read.setMateUId(uid + 1);
+		read.setComplexity(3);
+		read.setReadWeight(2);
+		read.setNumberOfMatches(numberOfMatches + 1);
+		return read;
+	}
+
+	private static String abbreviate(String text){
+		return text.length() > 300 ? text.substring(0, 300) + "..." : text;
+	}
+
+}
@@ -0,0 +1,193 @@
+/** 
+ * Copyright (C) 2015 Hans-Joachim Ruscheweyh
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rusch.megan6server.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
+import rusch.megan5client.connector.ReadBlockPage;
+import rusch.megan6server.fixtures.SyntheticMatchBlock;
+import rusch.megan6server.fixtures.SyntheticReadBlock;
+import rusch.megan6server.pagination.ReadPage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**Writes values with {@link BinaryJsonWriter}, reads them back with {@link BinaryJsonReader} and compares the JSON of both.
+ * 
+ * Covers nested objects and arrays, repeated field names, the limits of int and long, floats and doubles, null, booleans,
+ * binary data and strings with multi-byte characters and more than 64KB. A {@link ReadPage} is read back as {@link ReadBlockPage},
+ * its reads are written by ReadBlockJsonWriter into the binary generator. Also checks that truncated and foreign input is rejected.
+ * 
+ * Run with gradle roundTripTest. Exits with 1 if a check fails.
+ */
+public class BinaryJsonRoundTripTest {
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final BinaryJsonWriter writer = new BinaryJsonWriter(mapper);
+	private final BinaryJsonReader reader = new BinaryJsonReader(mapper);
+	private final List<String> failures = new ArrayList<String>();
+
+	/**A value with all kinds of fields, bound by Jackson through its public fields
+	 * 
+	 */
+	public static class Sample {
+		public String name;
+		public int count;
+		public long total;
+		public float score;
+		public double expected;
+		public boolean flag;
+		public String missing;
+		public byte[] data;
+		public int[] ids;
+		public Map<String, Integer> sums;
+		public List<Sample> children = new ArrayList<Sample>();
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> failures = new BinaryJsonRoundTripTest().run();
+		for(String failure : failures){
+			System.err.println(failure);
+		}
+		System.out.println(failures.isEmpty() ? "OK" : failures.size() + " failures");
+		System.exit(failures.isEmpty() ? 0 : 1);
+	}
+
+	public List<String> run() throws IOException {
+		checkRoundTrip("sample", createSample(3), Sample.class);
+		checkRoundTrip("empty sample", new Sample(), Sample.class);
+		Map<String, Object> tree = new LinkedHashMap<String, Object>();
+		tree.put("ints", Arrays.asList(0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE));
+		tree.put("longs", Arrays.asList(Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40, -(1L << 40)));
+		tree.put("doubles", Arrays.asList(0.0, -0.5, Double.MAX_VALUE, Double.MIN_VALUE, 1e-300));
+		tree.put("empty", new LinkedHashMap<String, Object>());
+		tree.put("nested", Arrays.asList(Arrays.asList(), Arrays.asList(Arrays.asList("a", null, true, false))));
+		tree.put("text", createText(70000));
+		checkRoundTrip("tree", tree, Map.class);
+		checkRoundTrip("string", "\u00fcber \u4e2d\u6587 \ud83e\uddec", String.class);
+		checkRoundTrip("number", 42, Integer.class);
+		checkRoundTrip("null", null, Object.class);
+		checkPage("read page", new IReadBlock[]{createRead(1, 0), createRead(2, 3), createRead(3, 1)});
+		checkRejected("foreign input", "{\"json\":true}".getBytes("UTF-8"));
+		byte[] complete = write(createSample(2));
+		for(int length : new int[]{2, 4, 5, complete.length / 2, complete.length - 1}){
+			checkRejected("truncated to " + length + " bytes", Arrays.copyOf(complete, length));
+		}
+		return failures;
+	}
+
+	private <T> void checkRoundTrip(String name, Object value, Class<T> type) throws IOException {
+		byte[] bytes = write(value);
+		T read = reader.read(new ByteArrayInputStream(bytes), type);
+		String expected = mapper.writeValueAsString(value);
+		String actual = mapper.writeValueAsString(read);
+		if(!expected.equals(actual)){
+			failures.add(String.format("%s: read %s instead of %s", name, abbreviate(actual), abbreviate(expected)));
+		}
+		if(bytes.length > expected.length() + 64){
+			failures.add(String.format("%s: %s bytes binary are larger than %s bytes JSON", name, bytes.length, expected.length()));
+		}
+	}
+
+	/**A page is read back as the bean of the client library, so only the JSON trees are compared, not the order of the fields
+	 * 
+	 */
+	private void checkPage(String name, IReadBlock[] reads) throws IOException {
+		String[] classnames = {"Taxonomy", "SEED"};
+		ReadPage page = new ReadPage("next", reads, reads.length, classnames, 1000, 10);
+		ReadBlockPage read = reader.read(new ByteArrayInputStream(write(page)), ReadBlockPage.class);
+		String expected = mapper.writeValueAsString(page);
+		String actual = mapper.writeValueAsString(read);
+		if(!mapper.readTree(expected).equals(mapper.readTree(actual))){
+			failures.add(String.format("%s: read %s instead of %s", name, abbreviate(actual), abbreviate(expected)));
+		}
+	}
+
+	private void checkRejected(String name, byte[] bytes){
+		try{
+			reader.read(new ByteArrayInputStream(bytes), Object.class);
+			failures.add(name + ": was read without an error");
+		}catch(IOException e){
+			// expected
+		}
+	}
+
+	private byte[] write(Object value) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(value, out);
+		return out.toByteArray();
+	}
+
+	private static SyntheticReadBlock createRead(long uid, int numberOfMatches){
+		IMatchBlock[] matchBlocks = new IMatchBlock[numberOfMatches];
+		for(int i = 0; i < numberOfMatches; i++){
+			SyntheticMatchBlock matchBlock = new SyntheticMatchBlock();
+			matchBlock.setUId(uid * 100 + i);
+			matchBlock.setTaxonId(1000 + i);
+			matchBlock.setBitScore(87.5f + i);
+			matchBlock.setRefSeqId("WP_" + uid + "." + i);
+			matchBlock.setExpected(1e-20f * (i + 1));
+			matchBlock.setText(">ref" + i + " \u00e9");
+			matchBlock.setId("Taxonomy", (int) uid);
+			matchBlock.setId("SEED", i == 0 ? null : (int) uid + 1);
+			matchBlocks[i] = matchBlock;
+		}
+		return new SyntheticReadBlock(uid, ">read" + uid, "ACGTACGTTG", matchBlocks);
+	}
+
+	private static Sample createSample(int depth){
+		Sample sample = new Sample();
+		sample.name = "sample " + depth + " \u00e9";
+		sample.count = -depth * 1000;
+		sample.total = 1L << (30 + depth);
+		sample.score = 123.25f + depth;
+		sample.expected = 1e-50 * depth;
+		sample.flag = depth % 2 == 0;
+		sample.data = new byte[]{0, 1, -1, (byte) depth, 127, -128};
+		sample.ids = new int[]{depth, -depth, Integer.MAX_VALUE};
+		sample.sums = new LinkedHashMap<String, Integer>();
+		sample.sums.put("Taxonomy", depth);
+		sample.sums.put("SEED", -depth);
+		for(int i = 0; i < depth; i++){
+			sample.children.add(createSample(depth - 1));
+		}
+		return sample;
+	}
+
+	private static String createText(int length){
+		StringBuilder text = new StringBuilder(length);
+		for(int i = 0; i < length; i++){
+			text.append((char) ('a' + i % 26));
+		}
+		return text.toString();
+	}
+
+	private static String abbreviate(String text){
+		return text.length() > 200 ? text.substring(0, 200) + "..." : text;
+	}
+
+}